@@ -0,0 +1,69 @@
+package com.example.demo.batch;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 端到端: DefaultBatchService.submit 到 future 完成, saver 不做任何 IO
+ *
+ * @author limaofeng
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(16)
+@Fork(1)
+public class BatchServiceBenchmark {
+
+    @Param({"LinkedQueue", "MpscRingBuffer"})
+    public String type;
+
+    @Param({"roundRobin", "powerOfTwoChoices", "threadLocalStriping"})
+    public String router;
+
+    private DefaultBatchService<Integer, Integer> service;
+
+    private static void complete(List<Cargo<Integer, Integer>> cargos) {
+        for (Cargo<Integer, Integer> cargo : cargos) {
+            cargo.getHearthstone().complete(cargo.getContent());
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BatchOptions.BatchOptionsBuilder<Integer, Integer> options = BatchOptions.<Integer, Integer>builder()
+                .name("jmh")
+                .batchSize(500)
+                .works(8);
+        if ("MpscRingBuffer".equals(type)) {
+            options.queueFactory(() -> new MpscRingBuffer<>(8192));
+        } else {
+            options.capacity(8192);
+        }
+        switch (router) {
+            case "powerOfTwoChoices":
+                options.router(WorkerRouter.powerOfTwoChoices());
+                break;
+            case "threadLocalStriping":
+                options.router(WorkerRouter.threadLocalStriping());
+                break;
+            default:
+                options.router(WorkerRouter.roundRobin());
+        }
+        service = new DefaultBatchService<>(BatchServiceBenchmark::complete, options.build());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        service.stop();
+    }
+
+    @Benchmark
+    public Integer submit() {
+        return service.submit(1).join();
+    }
+}
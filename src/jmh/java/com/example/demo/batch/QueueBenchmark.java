@@ -0,0 +1,166 @@
+package com.example.demo.batch;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Control;
+
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 队列吞吐量对比: 多个生产者 offer, 一个消费者 poll / take
+ * <p>
+ * 默认 4 个生产者, 可以用 -PjmhThreadGroups=N,1 调整为 1~64 个生产者
+ * <p>
+ * 生产者快于消费者时队列很快被填满, 主指标里大部分是被拒绝的 offer 和空的 poll,
+ * 比较队列时看辅助指标 offered / consumed (成功入队和出队的条数), rejected / missed 是失败的次数
+ *
+ * @author limaofeng
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Timeout(time = 5)
+@Fork(1)
+public class QueueBenchmark {
+
+    private static final Integer ITEM = 1;
+
+    @Param({"LinkedQueue", "LinkedBlockingQueue", "ArrayBlockingQueue", "ConcurrentLinkedQueue", "MpscRingBuffer"})
+    public String type;
+
+    @Param({"65536"})
+    public int capacity;
+
+    private Queue<Integer> queue;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        switch (type) {
+            case "LinkedQueue":
+                queue = new LinkedQueue<>(capacity);
+                break;
+            case "LinkedBlockingQueue":
+                queue = new LinkedBlockingQueue<>(capacity);
+                break;
+            case "ArrayBlockingQueue":
+                queue = new ArrayBlockingQueue<>(capacity);
+                break;
+            case "ConcurrentLinkedQueue":
+                queue = new CappedQueue(capacity);
+                break;
+            case "MpscRingBuffer":
+                queue = new MpscRingBuffer<>(capacity);
+                break;
+            default:
+                throw new IllegalArgumentException(type);
+        }
+    }
+
+    /**
+     * 每个线程成功和失败的次数, 按迭代汇总到结果中
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long offered;
+        public long rejected;
+        public long consumed;
+        public long missed;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            offered = 0;
+            rejected = 0;
+            consumed = 0;
+            missed = 0;
+        }
+    }
+
+    private void offer(Counters counters) {
+        if (queue.offer(ITEM)) {
+            counters.offered++;
+        } else {
+            counters.rejected++;
+        }
+    }
+
+    private Integer consumed(Integer item, Counters counters) {
+        if (item != null) {
+            counters.consumed++;
+        } else {
+            counters.missed++;
+        }
+        return item;
+    }
+
+    @Benchmark
+    @Group("poll")
+    @GroupThreads(4)
+    public void pollOffer(Counters counters) {
+        offer(counters);
+    }
+
+    @Benchmark
+    @Group("poll")
+    @GroupThreads(1)
+    public Integer pollConsume(Counters counters) {
+        return consumed(queue.poll(), counters);
+    }
+
+    @Benchmark
+    @Group("take")
+    @GroupThreads(4)
+    public void takeOffer(Counters counters) {
+        offer(counters);
+    }
+
+    /**
+     * ConcurrentLinkedQueue 不支持阻塞, 退化为 poll;
+     * 测量结束后生产者陆续退出, 改用 poll 避免消费者阻塞在空队列上使迭代无法结束,
+     * 仍然卡在 take 中时由 JMH 在 @Timeout 之后中断
+     */
+    @Benchmark
+    @Group("take")
+    @GroupThreads(1)
+    public Integer takeConsume(Counters counters, Control control) throws InterruptedException {
+        if (queue instanceof BlockingQueue && !control.stopMeasurement) {
+            return consumed(((BlockingQueue<Integer>) queue).take(), counters);
+        }
+        return consumed(queue.poll(), counters);
+    }
+
+    /**
+     * ConcurrentLinkedQueue 是无界的, 生产者快于消费者时会耗尽内存, 这里用一个计数器限制容量
+     */
+    static class CappedQueue extends ConcurrentLinkedQueue<Integer> {
+        private static final long serialVersionUID = 1L;
+
+        private final AtomicInteger size = new AtomicInteger();
+        private final int capacity;
+
+        CappedQueue(int capacity) {
+            this.capacity = capacity;
+        }
+
+        @Override
+        public boolean offer(Integer e) {
+            if (size.get() >= capacity) {
+                return false;
+            }
+            size.incrementAndGet();
+            return super.offer(e);
+        }
+
+        @Override
+        public Integer poll() {
+            Integer e = super.poll();
+            if (e != null) {
+                size.decrementAndGet();
+            }
+            return e;
+        }
+    }
+}
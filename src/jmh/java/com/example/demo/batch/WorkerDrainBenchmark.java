@@ -0,0 +1,59 @@
+package com.example.demo.batch;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Worker.getItems 从已填满的队列中取出一批数据的速度
+ * <p>
+ * 每次迭代前一次性放入 DRAINS 批数据, 迭代内连续取 DRAINS 次, 结果是取 DRAINS 批的总耗时;
+ * 不在每次调用前单独填充, 避免 Level.Invocation 的计时开销淹没只有几微秒的取数
+ *
+ * @author limaofeng
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, batchSize = WorkerDrainBenchmark.DRAINS)
+@Measurement(iterations = 10, batchSize = WorkerDrainBenchmark.DRAINS)
+@Fork(1)
+public class WorkerDrainBenchmark {
+
+    static final int DRAINS = 1000;
+
+    @Param({"LinkedQueue", "MpscRingBuffer"})
+    public String type;
+
+    @Param({"100", "500"})
+    public int batchSize;
+
+    private Worker<Integer, Integer> worker;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int capacity = batchSize * DRAINS;
+        BatchOptions.BatchOptionsBuilder<Integer, Integer> options = BatchOptions.<Integer, Integer>builder()
+                .batchSize(batchSize);
+        if ("MpscRingBuffer".equals(type)) {
+            options.queueFactory(() -> new MpscRingBuffer<>(capacity));
+        } else {
+            options.capacity(capacity);
+        }
+        worker = new Worker<>(items -> {
+        }, options.build());
+    }
+
+    @Setup(Level.Iteration)
+    public void fill() {
+        for (int i = 0; i < batchSize * DRAINS; i++) {
+            worker.add(i);
+        }
+    }
+
+    @Benchmark
+    public List<Cargo<Integer, Integer>> drain() {
+        return worker.getItems();
+    }
+}
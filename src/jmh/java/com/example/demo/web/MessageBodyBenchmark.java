@@ -0,0 +1,61 @@
+package com.example.demo.web;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 反序列化带大 input 的请求, 对比构建 JSON 树与延迟解析的开销
+ * <p>
+ * 配合 -PjmhProfilers=gc 查看每次操作分配的内存 (gc.alloc.rate.norm)
+ *
+ * @author limaofeng
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageBodyBenchmark {
+
+    @Param({"1000", "50000"})
+    public int rows;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private byte[] payload;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        StringBuilder json = new StringBuilder("{\"algorithm\":\"id\",\"task_id\":\"t\",\"mode\":\"async\",\"input\":[");
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"id\":").append(i)
+                    .append(",\"name\":\"user-").append(i)
+                    .append("\",\"score\":").append(i * 0.5)
+                    .append(",\"tags\":[\"a\",\"b\",\"c\"]}");
+        }
+        payload = json.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public JsonNode tree() throws IOException {
+        return objectMapper.readTree(payload).get("input");
+    }
+
+    @Benchmark
+    public MessageBody lazy() throws IOException {
+        return objectMapper.readValue(payload, MessageBody.class);
+    }
+
+    @Benchmark
+    public byte[] lazyForward() throws IOException {
+        return objectMapper.writeValueAsBytes(objectMapper.readValue(payload, MessageBody.class).getInput());
+    }
+}
@@ -0,0 +1,187 @@
+package com.example.demo.batch;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 批量提交服务的监控指标, 所有指标都带有 service 标签以区分不同的 BatchService
+ * <p>
+ * 提交线程上只记录 {@link Cargo#getSubmittedAt()}, 其余统计都在工人线程保存完一批之后进行,
+ * 不给提交路径增加额外的对象分配
+ *
+ * @author limaofeng
+ */
+public class BatchMetrics {
+
+    /**
+     * 不导出任何指标
+     */
+    static final BatchMetrics NOOP = new BatchMetrics(new CompositeMeterRegistry(), "noop");
+
+    private final MeterRegistry registry;
+    private final Tags tags;
+    private final List<Meter> meters = new ArrayList<>();
+    /**
+     * 按异常类型动态注册的 batch.saver.exceptions, 工人线程并发注册
+     */
+    private final ConcurrentMap<Class<?>, Counter> exceptions = new ConcurrentHashMap<>();
+
+    private final DistributionSummary batchSize;
+    private final Timer flushDuration;
+    private final Timer latency;
+    private final Counter items;
+    private final Counter failedBatches;
+    private final Counter retries;
+    private final Counter failedRetries;
+
+    public BatchMetrics(MeterRegistry registry, String name) {
+        this.registry = registry;
+        this.tags = Tags.of("service", name);
+        this.batchSize = register(DistributionSummary.builder("batch.size")
+                .description("Number of items per flushed batch")
+                .baseUnit("items")
+                .tags(tags)
+                .publishPercentileHistogram()
+                .register(registry));
+        this.flushDuration = register(Timer.builder("batch.flush")
+                .description("Time spent in the saver for one batch")
+                .tags(tags)
+                .publishPercentileHistogram()
+                .register(registry));
+        this.latency = register(Timer.builder("batch.latency")
+                .description("Time from submit to successful completion of an item")
+                .tags(tags)
+                .publishPercentileHistogram()
+                .register(registry));
+        this.items = register(Counter.builder("batch.items")
+                .description("Items saved successfully")
+                .baseUnit("items")
+                .tags(tags)
+                .register(registry));
+        this.failedBatches = register(Counter.builder("batch.failed")
+                .description("Batches whose saver threw an exception")
+                .tags(tags)
+                .register(registry));
+        this.retries = register(Counter.builder("batch.bisect.retries")
+                .description("Halves of a failed batch saved again during bisection")
+                .tags(tags.and("outcome", "success"))
+                .register(registry));
+        this.failedRetries = register(Counter.builder("batch.bisect.retries")
+                .description("Halves of a failed batch saved again during bisection")
+                .tags(tags.and("outcome", "failure"))
+                .register(registry));
+    }
+
+    private <M extends Meter> M register(M meter) {
+        meters.add(meter);
+        return meter;
+    }
+
+    /**
+     * 注册每个工人的队列深度与溢出计数
+     */
+    void bind(List<? extends Worker<?, ?>> workers) {
+        for (int i = 0; i < workers.size(); i++) {
+            Worker<?, ?> worker = workers.get(i);
+            Tags workerTags = tags.and("worker", String.valueOf(i));
+            register(Gauge.builder("batch.queue.depth", worker, Worker::getQueueSize)
+                    .description("Items waiting in the worker queue")
+                    .tags(workerTags)
+                    .register(registry));
+            register(Gauge.builder("batch.size.limit", worker, Worker::getBatchSize)
+                    .description("Current maximum number of items per batch")
+                    .baseUnit("items")
+                    .tags(workerTags)
+                    .register(registry));
+            register(Gauge.builder("batch.inflight", worker, Worker::getInFlight)
+                    .description("Batches taken from the queue and not yet saved in pipelined mode")
+                    .tags(workerTags)
+                    .register(registry));
+            register(FunctionCounter.builder("batch.queue.full", worker, Worker::getQueueFullCount)
+                    .description("Submissions that found the worker queue full")
+                    .tags(workerTags)
+                    .register(registry));
+            register(FunctionCounter.builder("batch.rejected", worker, Worker::getRejectedCount)
+                    .description("Submissions rejected because the queue stayed full")
+                    .tags(workerTags)
+                    .register(registry));
+            register(FunctionCounter.builder("batch.shed", worker, Worker::getShedCount)
+                    .description("Queued items evicted by newer submissions")
+                    .tags(workerTags)
+                    .register(registry));
+            register(FunctionCounter.builder("batch.coalesced", worker, Worker::getCoalescedCount)
+                    .description("Duplicate items merged into another item of the same batch")
+                    .tags(workerTags)
+                    .register(registry));
+        }
+    }
+
+    /**
+     * 记录一次保存
+     * <p>
+     * 批大小和保存耗时按整批记录; 条数和延迟只统计没有失败的数据, 失败只体现在 batch.failed 和 batch.saver.exceptions 中
+     *
+     * @param cargos 本批数据
+     * @param start 开始保存的时间
+     * @param end 保存结束的时间
+     */
+    void recordFlush(List<? extends Cargo<?, ?>> cargos, long start, long end) {
+        batchSize.record(cargos.size());
+        flushDuration.record(end - start, TimeUnit.NANOSECONDS);
+        int succeeded = 0;
+        for (Cargo<?, ?> cargo : cargos) {
+            if (cargo.getHearthstone().isCompletedExceptionally()) {
+                continue;
+            }
+            succeeded++;
+            latency.record(end - cargo.getSubmittedAt(), TimeUnit.NANOSECONDS);
+        }
+        items.increment(succeeded);
+    }
+
+    /**
+     * 记录一次保存失败, 每个从队列中取出的批次最多记录一次, 拆分重试记在 batch.bisect.retries 中
+     *
+     * @param e saver 抛出的异常
+     */
+    void recordFailure(Exception e) {
+        failedBatches.increment();
+        exceptions.computeIfAbsent(e.getClass(), type -> Counter.builder("batch.saver.exceptions")
+                .description("Exceptions thrown by the saver, by type")
+                .tags(tags.and("exception", type.getSimpleName()))
+                .register(registry))
+                .increment();
+    }
+
+    /**
+     * 记录一次拆分重试
+     *
+     * @param failed 重试的这一半是否再次失败
+     */
+    void recordRetry(boolean failed) {
+        (failed ? failedRetries : retries).increment();
+    }
+
+    /**
+     * 从注册表中移除本服务的指标
+     */
+    void close() {
+        meters.forEach(registry::remove);
+        meters.clear();
+        exceptions.values().forEach(registry::remove);
+        exceptions.clear();
+    }
+}
@@ -0,0 +1,220 @@
+package com.example.demo.batch;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.nio.file.Path;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 批量提交服务的配置
+ *
+ * @param <T> 类型
+ * @param <R> 结果类型
+ * @author limaofeng
+ */
+@Getter
+@Builder(toBuilder = true)
+public class BatchOptions<T, R> {
+
+  /** 服务名称, 用于线程名、日志和监控指标的 service 标签 */
+  @Builder.Default private final String name = "batch";
+
+  /** 批处理大小 */
+  @Builder.Default private final int batchSize = 500;
+
+  /**
+   * 自适应批大小的目标保存耗时 (纳秒)
+   *
+   * <p>为 0 时批大小固定为 batchSize; 大于 0 时以 batchSize 为初始值, 工人根据每批 saver 的耗时和吞吐在
+   * [minBatchSize, maxBatchSize] 之间调整批大小, 使单批耗时不超过该值
+   */
+  @Builder.Default private final long targetFlushNanos = 0;
+
+  /** 自适应批大小的下限 */
+  @Builder.Default private final int minBatchSize = 1;
+
+  /** 自适应批大小的上限 */
+  @Builder.Default private final int maxBatchSize = 10000;
+
+  /** 工人数量 */
+  @Builder.Default private final int works = 8;
+
+  /** 队列工厂, 每个工人调用一次; 为空时使用容量为 capacity 的 {@link LinkedQueue} */
+  private final Supplier<BlockingQueue<Cargo<T, R>>> queueFactory;
+
+  /** 每个工人的队列容量, 仅在未指定 queueFactory 时生效 */
+  @Builder.Default private final int capacity = Integer.MAX_VALUE;
+
+  /** 队列满时的处理策略 */
+  @Builder.Default private final OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+
+  /** {@link OverflowPolicy#BLOCK} 策略下的最长等待时间 (纳秒) */
+  @Builder.Default private final long offerTimeoutNanos = TimeUnit.SECONDS.toNanos(1);
+
+  /** 工人路由策略, 为空时使用轮询 */
+  private final WorkerRouter<T> router;
+
+  /**
+   * 凑批的最长等待时间 (纳秒)
+   *
+   * <p>为 0 时取到数据立即提交; 大于 0 时, 工人会等到凑满 batchSize 或者超过该时间才提交
+   */
+  @Builder.Default private final long lingerNanos = 0;
+
+  /**
+   * 共享的刷新线程
+   *
+   * <p>为空时每个工人独占一个线程等待数据; 指定后进入调度模式, 工人在攒够 batchSize 或者最早的数据等待超过
+   * linger 时才占用刷新线程, 适合为很多实体创建 BatchService 的场景
+   */
+  private final FlushScheduler scheduler;
+
+  /**
+   * 保存失败时对半拆分重试的最大深度
+   *
+   * <p>为 0 时整批失败; 大于 0 时, 失败的批次会被拆成两半分别重试, 直到找出出错的数据, 只让这些数据失败
+   */
+  @Builder.Default private final int bisectDepth = 0;
+
+  /** 一个失败批次在拆分重试中最多调用 saver 的次数, 用完后剩余部分直接失败 */
+  @Builder.Default private final int bisectRetries = 32;
+
+  /**
+   * 每个工人同时在途 (已取出未保存完) 的最大批次数
+   *
+   * <p>为 1 时工人取一批、保存一批; 大于 1 时进入流水线模式, 工人在前一批保存期间继续取出并准备下一批,
+   * 交给单独的保存线程执行。不支持调度模式
+   */
+  @Builder.Default private final int maxInFlight = 1;
+
+  /**
+   * 流水线模式下是否保持工人内的保存顺序
+   *
+   * <p>为 true 时同一个工人的批次按取出顺序依次保存, 只有取数和准备与保存并行; 为 false 时最多 maxInFlight
+   * 批同时保存, 完成顺序不确定。启用预写日志时必须为 true
+   */
+  @Builder.Default private final boolean ordered = true;
+
+  /**
+   * 合并重复数据的 key, 为空时不合并
+   *
+   * <p>指定后, 每批数据在交给 saver 之前按 key 去重, key 相同的数据只保存一条, 重复数据的 future 以同一个结果完成;
+   * key 为 null 的数据不参与合并
+   */
+  private final Function<? super T, ?> coalesceKey;
+
+  /** 合并 key 相同的两条数据, 默认保留先提交的一条 */
+  @Builder.Default private final BinaryOperator<T> coalesceMerge = (first, second) -> first;
+
+  /** 导出监控指标的注册表, 默认为 Micrometer 的全局注册表 */
+  @Builder.Default private final MeterRegistry meterRegistry = Metrics.globalRegistry;
+
+  /**
+   * 预写日志的目录, 为空时不记录日志
+   *
+   * <p>指定后, 数据入队前先追加到该目录下每个工人自己的日志中, 每批保存前统一落盘, saver 提交后删除已保存的部分;
+   * 启动时重放未保存的数据。工人数量在重启前后必须一致
+   */
+  private final Path journalDirectory;
+
+  /** 日志中数据的编解码, 指定 journalDirectory 时必须指定 */
+  private final JournalCodec<T> journalCodec;
+
+  /** 日志分段文件的大小 (字节) */
+  @Builder.Default private final int journalSegmentSize = 64 * 1024 * 1024;
+
+  /** 停机时保存剩余数据的最长时间 (纳秒) */
+  @Builder.Default private final long shutdownTimeoutNanos = TimeUnit.SECONDS.toNanos(30);
+
+  BlockingQueue<Cargo<T, R>> newQueue() {
+    return queueFactory != null ? queueFactory.get() : new LinkedQueue<>(capacity);
+  }
+
+  public static class BatchOptionsBuilder<T, R> {
+
+    /**
+     * 设置凑批的最长等待时间
+     *
+     * @param linger 时间
+     * @param unit 单位
+     * @return BatchOptionsBuilder
+     */
+    public BatchOptionsBuilder<T, R> linger(long linger, TimeUnit unit) {
+      return this.lingerNanos(unit.toNanos(linger));
+    }
+
+    /**
+     * 启用自适应批大小, batchSize 作为初始值
+     *
+     * @param min 批大小下限
+     * @param max 批大小上限
+     * @param target 单批保存的目标耗时
+     * @param unit 单位
+     * @return BatchOptionsBuilder
+     */
+    public BatchOptionsBuilder<T, R> adaptive(int min, int max, long target, TimeUnit unit) {
+      return this.minBatchSize(min).maxBatchSize(max).targetFlushNanos(unit.toNanos(target));
+    }
+
+    /**
+     * 启用流水线模式
+     *
+     * @param maxInFlight 每个工人同时在途的最大批次数
+     * @param ordered 是否保持工人内的保存顺序
+     * @return BatchOptionsBuilder
+     */
+    public BatchOptionsBuilder<T, R> pipelined(int maxInFlight, boolean ordered) {
+      return this.maxInFlight(maxInFlight).ordered(ordered);
+    }
+
+    /**
+     * 按 key 合并同一批中的重复数据, 保留先提交的一条
+     *
+     * @param key 合并的 key
+     * @return BatchOptionsBuilder
+     */
+    public BatchOptionsBuilder<T, R> coalesce(Function<? super T, ?> key) {
+      return this.coalesceKey(key);
+    }
+
+    /**
+     * 按 key 合并同一批中的重复数据
+     *
+     * @param key 合并的 key
+     * @param merge 合并两条数据, 参数依次为先提交的和后提交的
+     * @return BatchOptionsBuilder
+     */
+    public BatchOptionsBuilder<T, R> coalesce(Function<? super T, ?> key, BinaryOperator<T> merge) {
+      return this.coalesceKey(key).coalesceMerge(merge);
+    }
+
+    /**
+     * 设置 {@link OverflowPolicy#BLOCK} 策略下的最长等待时间
+     *
+     * @param timeout 时间
+     * @param unit 单位
+     * @return BatchOptionsBuilder
+     */
+    public BatchOptionsBuilder<T, R> offerTimeout(long timeout, TimeUnit unit) {
+      return this.offerTimeoutNanos(unit.toNanos(timeout));
+    }
+
+    /**
+     * 设置停机时保存剩余数据的最长时间
+     *
+     * @param timeout 时间
+     * @param unit 单位
+     * @return BatchOptionsBuilder
+     */
+    public BatchOptionsBuilder<T, R> shutdownTimeout(long timeout, TimeUnit unit) {
+      return this.shutdownTimeoutNanos(unit.toNanos(timeout));
+    }
+  }
+}
@@ -0,0 +1,38 @@
+package com.example.demo.batch;
+
+import lombok.Getter;
+
+/**
+ * 批量提交服务拒绝接收数据时抛出的异常
+ * <p>
+ * 拒绝发生在过载时, 为了不加重负担, 该异常不记录堆栈
+ *
+ * @author limaofeng
+ */
+@Getter
+public class BatchRejectedException extends RuntimeException {
+
+    private static final long serialVersionUID = 7242825980476929915L;
+
+    private final Reason reason;
+
+    public BatchRejectedException(Reason reason, String message) {
+        super(message, null, false, false);
+        this.reason = reason;
+    }
+
+    public enum Reason {
+        /**
+         * 队列已满, 提交被拒绝
+         */
+        QUEUE_FULL,
+        /**
+         * 已入队, 但被更新的数据挤出队列
+         */
+        SHED,
+        /**
+         * 服务已停止, 或者停机时未能在期限内保存
+         */
+        SHUTDOWN
+    }
+}
@@ -1,8 +1,13 @@
 package com.example.demo.batch;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 public interface BatchService<T, R> {
 
@@ -20,5 +25,122 @@ public interface BatchService<T, R> {
     return new DefaultBatchService<>(saver, batchSize, works);
   }
 
+  /**
+   * 生成批量提交服务, 并指定工人使用的队列实现
+   *
+   * <p>默认使用 {@link LinkedQueue}, 高并发写入时可以换成无锁的 {@link MpscRingBuffer}:
+   *
+   * <pre>
+   *   BatchService.create(saver, 500, 8, () -&gt; new MpscRingBuffer&lt;&gt;(8192));
+   * </pre>
+   *
+   * @param saver 保存方法
+   * @param batchSize 批处理大小
+   * @param works 工人数量
+   * @param queueFactory 队列工厂, 每个工人调用一次
+   * @param <T> 类型
+   * @return BatchService<T>
+   */
+  static <T, R> BatchService<T, R> create(
+      Consumer<List<Cargo<T, R>>> saver,
+      int batchSize,
+      int works,
+      Supplier<BlockingQueue<Cargo<T, R>>> queueFactory) {
+    return new DefaultBatchService<>(saver, batchSize, works, queueFactory);
+  }
+
+  /**
+   * 生成批量提交服务, 工人最多等待 linger 时间来凑满一批
+   *
+   * <p>用有限的延迟换取更大的批次, 适合中等负载下批次过小的场景
+   *
+   * @param saver 保存方法
+   * @param batchSize 批处理大小
+   * @param works 工人数量
+   * @param linger 凑批的最长等待时间
+   * @param unit 时间单位
+   * @param <T> 类型
+   * @return BatchService<T>
+   */
+  static <T, R> BatchService<T, R> create(
+      Consumer<List<Cargo<T, R>>> saver, int batchSize, int works, long linger, TimeUnit unit) {
+    return create(
+        saver,
+        BatchOptions.<T, R>builder()
+            .batchSize(batchSize)
+            .works(works)
+            .linger(linger, unit)
+            .build());
+  }
+
+  /**
+   * 生成批量提交服务, 同一批中 key 相同的数据只保存一条
+   *
+   * <p>适合客户端重试导致重复提交的场景, 重复数据的 future 以同一个结果完成:
+   *
+   * <pre>
+   *   BatchService.create(saver, 500, 8, User::getUsername);
+   * </pre>
+   *
+   * @param saver 保存方法
+   * @param batchSize 批处理大小
+   * @param works 工人数量
+   * @param coalesceKey 合并的 key
+   * @param <T> 类型
+   * @return BatchService<T>
+   */
+  static <T, R> BatchService<T, R> create(
+      Consumer<List<Cargo<T, R>>> saver,
+      int batchSize,
+      int works,
+      Function<? super T, ?> coalesceKey) {
+    return create(
+        saver,
+        BatchOptions.<T, R>builder()
+            .batchSize(batchSize)
+            .works(works)
+            .coalesce(coalesceKey)
+            .build());
+  }
+
+  /**
+   * 根据配置生成批量提交服务
+   *
+   * @param saver 保存方法
+   * @param options 配置
+   * @param <T> 类型
+   * @return BatchService<T>
+   */
+  static <T, R> BatchService<T, R> create(
+      Consumer<List<Cargo<T, R>>> saver, BatchOptions<T, R> options) {
+    return new DefaultBatchService<>(saver, options);
+  }
+
   CompletableFuture<R> submit(T entity);
+
+  /**
+   * 提交数据, 只等待数据可靠地被接收
+   *
+   * <p>启用预写日志时, 数据落盘后即完成, 不等待 saver, 进程崩溃后重启时会重放; 未启用时等同于 submit 完成
+   *
+   * @param entity 数据
+   * @return CompletableFuture
+   */
+  default CompletableFuture<Void> accept(T entity) {
+    return submit(entity).thenApply(result -> null);
+  }
+
+  /**
+   * 批量提交一组数据
+   *
+   * <p>整组进入同一个工人的队列, 只返回一个 future; 组内数据全部处理完毕后完成,
+   * 每条数据的结果 (或失败原因) 从对应 Cargo 的 hearthstone 中读取, 顺序与 entities 一致
+   *
+   * <p>saver 通过各自的 hearthstone 返回结果, 所以每条数据仍有自己的 Cargo 和 future;
+   * 与循环调用 submit 相比省掉的是入队时的加锁次数和调用方汇总结果的开销, 不是单条数据的对象分配
+   *
+   * @param entities 数据
+   * @return CompletableFuture
+   */
+  CompletableFuture<List<Cargo<T, R>>> submitAll(Collection<? extends T> entities);
 }
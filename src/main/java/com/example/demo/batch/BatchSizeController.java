@@ -0,0 +1,80 @@
+package com.example.demo.batch;
+
+/**
+ * 根据保存耗时自动调整批大小 (AIMD)
+ * <p>
+ * 单批保存超过目标耗时或者保存失败时, 批大小按比例缩小; 否则在批次装满的前提下逐步加大, 如果加大后吞吐
+ * (行/秒) 明显低于近期平均值, 说明数据库已经出现锁竞争, 退回一步。批大小始终限制在 [min, max] 之间
+ * <p>
+ * 流水线模式下多个保存线程会同时调用 {@link #record(int, int, long, boolean)}, 当前批大小可以被任意线程读取
+ *
+ * @author limaofeng
+ */
+class BatchSizeController {
+
+    /**
+     * 超过目标耗时后的缩小比例
+     */
+    private static final double DECREASE = 0.75;
+    /**
+     * 吞吐低于平均值的该比例时视为变差
+     */
+    private static final double REGRESSION = 0.9;
+    /**
+     * 吞吐平均值的平滑系数
+     */
+    private static final double SMOOTHING = 0.2;
+
+    private final int min;
+    private final int max;
+    private final long targetNanos;
+    private final int step;
+
+    private volatile int limit;
+    private double throughput;
+
+    BatchSizeController(int initial, int min, int max, long targetNanos) {
+        if (min <= 0 || max < min) {
+            throw new IllegalArgumentException("Invalid batch size bounds: [" + min + ", " + max + "]");
+        }
+        this.min = min;
+        this.max = max;
+        this.targetNanos = targetNanos;
+        this.step = Math.max(1, (max - min) / 32);
+        this.limit = Math.min(max, Math.max(min, initial));
+    }
+
+    /**
+     * @return 当前批大小
+     */
+    int limit() {
+        return limit;
+    }
+
+    /**
+     * 记录一次保存
+     *
+     * @param drained 本批从队列中取出的数量
+     * @param rows    交给 saver 的行数
+     * @param nanos   saver 的耗时
+     * @param failed  saver 是否抛出异常
+     */
+    synchronized void record(int drained, int rows, long nanos, boolean failed) {
+        int current = limit;
+        if (failed || nanos > targetNanos) {
+            limit = Math.max(min, (int) (current * DECREASE));
+            return;
+        }
+        if (drained < current) {
+            // 队列里的数据不够一批, 批大小不是瓶颈
+            return;
+        }
+        double rate = rows * 1e9 / Math.max(1, nanos);
+        if (throughput > 0 && rate < throughput * REGRESSION) {
+            limit = Math.max(min, current - step);
+        } else {
+            limit = Math.min(max, current + step);
+        }
+        throughput = throughput == 0 ? rate : throughput + SMOOTHING * (rate - throughput);
+    }
+}
@@ -0,0 +1,20 @@
+package com.example.demo.batch;
+
+import java.util.Collection;
+
+/**
+ * 支持一次放入多个元素的队列
+ *
+ * @param <E> 元素类型
+ * @author limaofeng
+ */
+interface BulkQueue<E> {
+
+    /**
+     * 在一次加锁 (或一次 CAS) 中把全部元素按顺序放入队列, 剩余容量不足时一个都不放
+     *
+     * @param c 元素
+     * @return 是否放入
+     */
+    boolean offerAll(Collection<? extends E> c);
+}
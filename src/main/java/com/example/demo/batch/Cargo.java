@@ -1,6 +1,8 @@
 package com.example.demo.batch;
 
+import lombok.AccessLevel;
 import lombok.Getter;
+import lombok.Setter;
 
 import java.util.concurrent.CompletableFuture;
 
@@ -8,12 +10,37 @@ import java.util.concurrent.CompletableFuture;
 public class Cargo<T, R> {
   private final CompletableFuture<R> hearthstone = new CompletableFuture<>();
   private final T content;
+  /** 提交时间, 基于 {@link System#nanoTime()}, 用于统计提交到完成的耗时 */
+  private final long submittedAt = System.nanoTime();
+  /** 通过 submitAll 提交时所属的组, 单条提交时为空 */
+  @Getter(AccessLevel.NONE)
+  private final CargoGroup<T, R> group;
+  /** 在预写日志中的序号, 未启用日志时为 -1 */
+  @Getter(AccessLevel.PACKAGE)
+  @Setter(AccessLevel.PACKAGE)
+  private long sequence = -1;
+  /** 已经确认落盘 (通过 accept 提交, 或者启动时从日志重放), 保存失败时仍保留在日志中 */
+  @Getter(AccessLevel.PACKAGE)
+  @Setter(AccessLevel.PACKAGE)
+  private boolean durable;
 
-  private Cargo(T o) {
+  private Cargo(T o, CargoGroup<T, R> group) {
     this.content = o;
+    this.group = group;
   }
 
   public static <T, R> Cargo<T, R> of(T o) {
-    return new Cargo<>(o);
+    return new Cargo<>(o, null);
+  }
+
+  static <T, R> Cargo<T, R> of(T o, CargoGroup<T, R> group) {
+    return new Cargo<>(o, group);
+  }
+
+  /** 工人处理完该数据 (保存成功、失败或被拒绝) 后调用, 通知所属的组 */
+  void settled() {
+    if (group != null) {
+      group.arrive(this);
+    }
   }
 }
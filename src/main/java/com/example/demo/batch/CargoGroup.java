@@ -0,0 +1,58 @@
+package com.example.demo.batch;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 通过 {@link BatchService#submitAll} 一起提交的一组数据
+ * <p>
+ * 工人处理完组内的每一条数据 (保存成功、失败或被拒绝) 后调用 {@link #arrive(Cargo)},
+ * 全部到达时以组内的 Cargo 列表完成 future, 调用方从每个 Cargo 的 hearthstone 中读取单条结果。
+ * 单条结果不能集中存放在组里: saver 的约定是完成每个 Cargo 自己的 hearthstone
+ *
+ * @param <T> 类型
+ * @param <R> 结果类型
+ * @author limaofeng
+ */
+class CargoGroup<T, R> {
+
+    private final CompletableFuture<List<Cargo<T, R>>> future = new CompletableFuture<>();
+    private final AtomicInteger pending;
+    private List<Cargo<T, R>> cargos;
+
+    CargoGroup(int size) {
+        this.pending = new AtomicInteger(size);
+    }
+
+    void setCargos(List<Cargo<T, R>> cargos) {
+        this.cargos = Collections.unmodifiableList(cargos);
+        if (cargos.isEmpty()) {
+            future.complete(this.cargos);
+        }
+    }
+
+    CompletableFuture<List<Cargo<T, R>>> getFuture() {
+        return future;
+    }
+
+    /**
+     * 组内一条数据处理完毕
+     * <p>
+     * 由 saver 异步完成的数据, 等 hearthstone 完成后再计数
+     */
+    void arrive(Cargo<T, R> cargo) {
+        if (cargo.getHearthstone().isDone()) {
+            countDown();
+        } else {
+            cargo.getHearthstone().whenComplete((result, e) -> countDown());
+        }
+    }
+
+    private void countDown() {
+        if (pending.decrementAndGet() == 0) {
+            future.complete(cargos);
+        }
+    }
+}
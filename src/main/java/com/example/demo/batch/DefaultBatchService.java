@@ -1,59 +1,325 @@
 package com.example.demo.batch;
 
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.SmartLifecycle;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executor;
 import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
-public class DefaultBatchService<T, R> implements BatchService<T, R> {
-
-  public AtomicInteger atomicInteger = new AtomicInteger(0);
-  public ConcurrentHashMap<Integer, Worker<T, R>> cache = new ConcurrentHashMap<>();
+/**
+ * 默认的批量提交服务
+ *
+ * <p>所有工人共用一个大小等于工人数量的线程池; 指定 {@link BatchOptions#getScheduler()} 时不创建线程,
+ * 由共享的刷新线程按需调度。注册为 Spring Bean 后, 容器关闭时会先停止接收新数据,
+ * 在 shutdownTimeout 内把队列中剩余的数据保存完, 仍未处理的数据以 {@link
+ * BatchRejectedException.Reason#SHUTDOWN} 失败
+ *
+ * <p>maxInFlight 大于 1 时另建一个保存线程池, 工人线程只负责取数和准备, 保存在该线程池中进行
+ */
+@Slf4j
+public class DefaultBatchService<T, R>
+    implements BatchService<T, R>, SmartLifecycle, DisposableBean {
 
   private final int workerNumber;
+  private final List<Worker<T, R>> workers;
+  private final WorkerRouter<T> router;
+  private final String name;
+  private final long shutdownTimeoutNanos;
+  private final boolean scheduled;
+  private final ThreadPoolTaskExecutor executor;
+  private final ThreadPoolTaskExecutor flushExecutor;
+  private final BatchMetrics metrics;
+  private final JournalSyncer journalSyncer;
+  private volatile boolean running;
+  private boolean stopped;
 
-  public Executor asyncServiceExecutor() {
+  public ThreadPoolTaskExecutor asyncServiceExecutor() {
     ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
-    executor.setCorePoolSize(100);
-    executor.setMaxPoolSize(100);
-    executor.setQueueCapacity(999);
-    executor.setKeepAliveSeconds(30);
-    executor.setThreadNamePrefix("bath_service");
-    executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+    executor.setCorePoolSize(workerNumber);
+    executor.setMaxPoolSize(workerNumber);
+    executor.setQueueCapacity(0);
+    executor.setThreadNamePrefix(name + "-worker-");
+    executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+    executor.initialize();
+    return executor;
+  }
+
+  /**
+   * 流水线模式下执行保存的线程池, 有序时每个工人同一时刻只有一批在保存
+   */
+  private ThreadPoolTaskExecutor flushServiceExecutor(int threads) {
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(threads);
+    executor.setMaxPoolSize(threads);
+    executor.setThreadNamePrefix(name + "-flush-");
     executor.initialize();
     return executor;
   }
 
   public DefaultBatchService(Consumer<List<Cargo<T, R>>> saver, int batchSize, int works) {
-    workerNumber = works;
+    this(saver, BatchOptions.<T, R>builder().batchSize(batchSize).works(works).build());
+  }
+
+  public DefaultBatchService(
+      Consumer<List<Cargo<T, R>>> saver,
+      int batchSize,
+      int works,
+      Supplier<BlockingQueue<Cargo<T, R>>> queueFactory) {
+    this(
+        saver,
+        BatchOptions.<T, R>builder()
+            .batchSize(batchSize)
+            .works(works)
+            .queueFactory(queueFactory)
+            .build());
+  }
+
+  public DefaultBatchService(Consumer<List<Cargo<T, R>>> saver, BatchOptions<T, R> options) {
+    workerNumber = options.getWorks();
+    name = options.getName();
+    shutdownTimeoutNanos = options.getShutdownTimeoutNanos();
+    router = options.getRouter() != null ? options.getRouter() : WorkerRouter.roundRobin();
+    metrics = new BatchMetrics(options.getMeterRegistry(), name);
+    checkPipeline(options);
+    if (options.getJournalDirectory() != null) {
+      checkJournals(options.getJournalDirectory());
+    }
+    List<Worker<T, R>> list = new ArrayList<>(workerNumber);
     for (int i = 0; i < workerNumber; i++) {
-      Worker<T, R> task = new Worker<>(saver, batchSize);
-      cache.put(i, task);
-      Executor executor = asyncServiceExecutor();
-      executor.execute(task);
+      Worker<T, R> worker = new Worker<>(saver, options, metrics, openJournal(options, i));
+      list.add(worker);
+    }
+    workers = Collections.unmodifiableList(list);
+    List<Journal<T>> journals = new ArrayList<>();
+    workers.stream().map(Worker::getJournal).filter(Objects::nonNull).forEach(journals::add);
+    journalSyncer = journals.isEmpty() ? null : new JournalSyncer(journals, name + "-journal-sync");
+    metrics.bind(workers);
+    scheduled = options.getScheduler() != null;
+    executor = scheduled ? null : asyncServiceExecutor();
+    if (options.getMaxInFlight() > 1) {
+      flushExecutor = flushServiceExecutor(workerNumber * (options.isOrdered() ? 1 : options.getMaxInFlight()));
+      workers.forEach(worker -> worker.pipeline(flushExecutor));
+    } else {
+      flushExecutor = null;
+    }
+    start();
+  }
+
+  private static <T> Journal<T> openJournal(BatchOptions<T, ?> options, int index) {
+    if (options.getJournalDirectory() == null) {
+      return null;
+    }
+    if (options.getJournalCodec() == null) {
+      throw new IllegalArgumentException("journalCodec is required when journalDirectory is set");
+    }
+    try {
+      return new Journal<>(
+          options.getJournalDirectory().resolve("worker-" + index),
+          options.getJournalCodec(),
+          options.getJournalSegmentSize());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
     }
   }
 
-  public final int getAndIncrement() {
-    int current;
-    int next;
-    do {
-      current = this.atomicInteger.get();
-      next = current >= 214748364 ? 0 : current + 1;
-    } while (!this.atomicInteger.compareAndSet(current, next));
-    return next;
+  private static void checkPipeline(BatchOptions<?, ?> options) {
+    if (options.getMaxInFlight() < 1) {
+      throw new IllegalArgumentException("maxInFlight must be positive: " + options.getMaxInFlight());
+    }
+    if (options.getMaxInFlight() == 1) {
+      return;
+    }
+    if (options.getScheduler() != null) {
+      throw new IllegalArgumentException("maxInFlight > 1 is not supported with a shared FlushScheduler");
+    }
+    if (options.getJournalDirectory() != null && !options.isOrdered()) {
+      // 检查点要求按顺序保存
+      throw new IllegalArgumentException("journalDirectory requires ordered pipelining");
+    }
+  }
+
+  /** 工人数量减少后, 多出的工人日志无人重放, 拒绝启动以免丢失数据 */
+  private void checkJournals(Path directory) {
+    if (!Files.isDirectory(directory)) {
+      return;
+    }
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "worker-*")) {
+      for (Path path : stream) {
+        String index = path.getFileName().toString().substring("worker-".length());
+        if (index.matches("\\d+") && Integer.parseInt(index) >= workerNumber) {
+          throw new IllegalStateException(
+              "BatchService[" + name + "] found journal " + path + " but only has " + workerNumber + " workers");
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public synchronized void start() {
+    if (running) {
+      return;
+    }
+    if (stopped) {
+      throw new IllegalStateException("BatchService[" + name + "] has been stopped");
+    }
+    if (!scheduled) {
+      workers.forEach(executor::execute);
+    }
+    workers.forEach(Worker::replay);
+    if (journalSyncer != null) {
+      journalSyncer.start();
+    }
+    running = true;
+  }
+
+  /**
+   * 停止接收新数据, 在 shutdownTimeout 内保存完队列中的剩余数据, 超时未处理的数据以失败结束
+   */
+  @Override
+  public synchronized void stop() {
+    if (!running) {
+      return;
+    }
+    running = false;
+    stopped = true;
+    long deadline = System.nanoTime() + shutdownTimeoutNanos;
+    workers.forEach(worker -> worker.shutdown(deadline));
+    if (scheduled) {
+      workers.forEach(Worker::drainScheduled);
+    } else {
+      executor.getThreadPoolExecutor().shutdown();
+      try {
+        long nanos = deadline - System.nanoTime();
+        if (!executor.getThreadPoolExecutor().awaitTermination(Math.max(0, nanos), TimeUnit.NANOSECONDS)) {
+          log.warn("BatchService[{}] workers did not finish within the shutdown timeout", name);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      if (flushExecutor != null) {
+        // 排在保存线程池中、还未开始的批次由下面的 abandon 以失败结束
+        flushExecutor.shutdown();
+      }
+    }
+    int abandoned = workers.stream().mapToInt(Worker::abandon).sum();
+    if (abandoned > 0) {
+      log.warn("BatchService[{}] failed {} unsaved items on shutdown", name, abandoned);
+    }
+    if (journalSyncer != null) {
+      journalSyncer.stop();
+    }
+    for (Worker<T, R> worker : workers) {
+      if (worker.getJournal() != null) {
+        try {
+          worker.getJournal().close();
+        } catch (IOException e) {
+          log.warn("BatchService[{}] failed to close journal: {}", name, e.getMessage());
+        }
+      }
+    }
+    metrics.close();
+  }
+
+  @Override
+  public boolean isRunning() {
+    return running;
+  }
+
+  /** 在 Web 服务器停止之后再停止, 保证优雅停机期间的请求仍能完成 */
+  @Override
+  public int getPhase() {
+    return SmartLifecycle.DEFAULT_PHASE - 2048;
+  }
+
+  @Override
+  public void destroy() {
+    stop();
+  }
+
+  public List<Worker<T, R>> getWorkers() {
+    return workers;
+  }
+
+  /**
+   * 所有工人队列满的次数之和, 用于评估队列容量是否合理
+   *
+   * @return 次数
+   */
+  public long getQueueFullCount() {
+    return workers.stream().mapToLong(Worker::getQueueFullCount).sum();
+  }
+
+  public long getRejectedCount() {
+    return workers.stream().mapToLong(Worker::getRejectedCount).sum();
+  }
+
+  public long getShedCount() {
+    return workers.stream().mapToLong(Worker::getShedCount).sum();
   }
 
   @Override
   public CompletableFuture<R> submit(T entity) {
-    int count = getAndIncrement();
-    int position = count % workerNumber;
-    Worker<T, R> queue = cache.get(position);
-    return queue.add(entity);
+    if (!running) {
+      CompletableFuture<R> future = new CompletableFuture<>();
+      future.completeExceptionally(
+          new BatchRejectedException(
+              BatchRejectedException.Reason.SHUTDOWN, "BatchService[" + name + "] is not running"));
+      return future;
+    }
+    Worker<T, R> worker = workers.get(router.route(entity, workers));
+    return worker.add(entity);
+  }
+
+  @Override
+  public CompletableFuture<Void> accept(T entity) {
+    if (!running) {
+      CompletableFuture<Void> future = new CompletableFuture<>();
+      future.completeExceptionally(
+          new BatchRejectedException(
+              BatchRejectedException.Reason.SHUTDOWN, "BatchService[" + name + "] is not running"));
+      return future;
+    }
+    Worker<T, R> worker = workers.get(router.route(entity, workers));
+    return worker.accept(entity);
+  }
+
+  /**
+   * 整组提交到同一个工人, 按第一条数据选择工人
+   *
+   * <p>不在运行状态时整组以 {@link BatchRejectedException.Reason#SHUTDOWN} 失败
+   */
+  @Override
+  public CompletableFuture<List<Cargo<T, R>>> submitAll(Collection<? extends T> entities) {
+    if (!running) {
+      CompletableFuture<List<Cargo<T, R>>> future = new CompletableFuture<>();
+      future.completeExceptionally(
+          new BatchRejectedException(
+              BatchRejectedException.Reason.SHUTDOWN, "BatchService[" + name + "] is not running"));
+      return future;
+    }
+    if (entities.isEmpty()) {
+      return CompletableFuture.completedFuture(Collections.emptyList());
+    }
+    T first = entities.iterator().next();
+    Worker<T, R> worker = workers.get(router.route(first, workers));
+    return worker.addAll(entities);
   }
 }
@@ -0,0 +1,51 @@
+package com.example.demo.batch;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 共享的刷新线程
+ * <p>
+ * 在调度模式下, 工人不再独占线程阻塞在队列上, 而是在队列攒够 batchSize 或者最早的数据等待超过 linger
+ * 时, 才向这里提交一次刷新任务。多个 BatchService 的所有工人共用这一组固定数量的线程, 空闲的工人不占用线程
+ *
+ * @author limaofeng
+ */
+public class FlushScheduler implements DisposableBean {
+
+    private final ScheduledThreadPoolExecutor executor;
+
+    public FlushScheduler(int threads) {
+        this(threads, "batch-flush-");
+    }
+
+    public FlushScheduler(int threads, String threadNamePrefix) {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(threadNamePrefix);
+        threadFactory.setDaemon(true);
+        this.executor = new ScheduledThreadPoolExecutor(threads, threadFactory);
+        this.executor.setRemoveOnCancelPolicy(true);
+    }
+
+    void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    void schedule(Runnable task, long delayNanos) {
+        executor.schedule(task, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 关闭刷新线程, 应当在所有使用它的 BatchService 停止之后调用
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @Override
+    public void destroy() {
+        shutdown();
+    }
+}
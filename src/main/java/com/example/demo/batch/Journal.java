@@ -0,0 +1,547 @@
+package com.example.demo.batch;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * 工人的预写日志
+ * <p>
+ * 数据入队前先追加到内存映射的分段文件中, 每条记录的格式为 [记录长度 int][CRC32 int][序号 long][数据]。
+ * 追加只写入页缓存, 由工人在保存每一批之前调用一次 {@link #sync()} 落盘, 一次 fsync 覆盖此前追加的所有数据,
+ * 有数据等待确认时 {@link JournalSyncer} 也会立即落盘;
+ * saver 提交之后调用 {@link #checkpoint(long)} 记录已保存的序号, 并删除已经全部保存的分段。
+ * 启动时 {@link #replay(BiConsumer)} 把检查点之后的数据重新交给工人。
+ * <p>
+ * 已经确认落盘但保存失败的数据通过 {@link #retain(long)} 留在日志中, 本次运行期间检查点不会越过它们,
+ * 下次启动时连同其后的数据一起重放; 提交方已经收到失败的数据 (被挤出、停机时放弃等) 通过 {@link #drop(long)}
+ * 把序号记入 dropped 文件, 重放时跳过。
+ * <p>
+ * 检查点在 saver 提交之后才落盘, 两者之间崩溃, 或者检查点停在保留的数据之前, 都会导致重放已保存的数据, 即至少一次的语义
+ *
+ * @param <T> 类型
+ * @author limaofeng
+ */
+@Slf4j
+public class Journal<T> implements Closeable {
+
+    /**
+     * 记录头: 记录长度、CRC32、序号
+     */
+    private static final int HEADER = 16;
+    private static final String SUFFIX = ".log";
+    private static final String CHECKPOINT = "checkpoint";
+    private static final String DROPPED = "dropped";
+
+    private final Path directory;
+    private final JournalCodec<T> codec;
+    private final int segmentSize;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    /**
+     * 等待落盘确认的数据, 按序号排列
+     */
+    private final Queue<Pending> pending = new ConcurrentLinkedQueue<>();
+    /**
+     * 保存失败、需要在下次启动时重放的序号, 检查点不能越过其中最小的一个, 由 lock 保护
+     */
+    private final TreeSet<Long> retained = new TreeSet<>();
+    /**
+     * 检查点之后被丢弃的序号, 由 lock 保护
+     */
+    private final TreeSet<Long> dropped = new TreeSet<>();
+    private final FileChannel droppedChannel;
+    private final ByteBuffer droppedBuffer = ByteBuffer.allocate(Long.BYTES);
+    private long droppedPosition;
+    private boolean droppedDirty;
+    private final FileChannel checkpointChannel;
+    private final ByteBuffer checkpointBuffer = ByteBuffer.allocate(Long.BYTES);
+    private final CRC32 crc = new CRC32();
+
+    private volatile long checkpoint;
+    /**
+     * 打开时日志中最后一条记录的序号, 重放到此为止
+     */
+    private final long replayLimit;
+    private long nextSequence;
+    private int lastAppendPosition;
+    private Segment current;
+    private volatile JournalSyncer syncer;
+
+    public Journal(Path directory, JournalCodec<T> codec, int segmentSize) throws IOException {
+        if (segmentSize <= HEADER) {
+            throw new IllegalArgumentException("segmentSize is too small: " + segmentSize);
+        }
+        this.directory = Files.createDirectories(directory);
+        this.codec = codec;
+        this.segmentSize = segmentSize;
+        this.checkpointChannel = FileChannel.open(directory.resolve(CHECKPOINT),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.checkpoint = readCheckpoint();
+        this.droppedChannel = FileChannel.open(directory.resolve(DROPPED),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        readDropped();
+        this.replayLimit = open();
+        this.nextSequence = Math.max(replayLimit, checkpoint) + 1;
+        if (current == null) {
+            current = createSegment(nextSequence);
+            segments.add(current);
+        }
+    }
+
+    private long readCheckpoint() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+        if (checkpointChannel.read(buffer, 0) < Long.BYTES) {
+            return 0;
+        }
+        buffer.flip();
+        return buffer.getLong();
+    }
+
+    private void readDropped() throws IOException {
+        long size = droppedChannel.size() / Long.BYTES * Long.BYTES;
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        int read;
+        do {
+            read = droppedChannel.read(buffer, buffer.position());
+        } while (read > 0 && buffer.hasRemaining());
+        buffer.flip();
+        while (buffer.remaining() >= Long.BYTES) {
+            long sequence = buffer.getLong();
+            if (sequence > checkpoint) {
+                dropped.add(sequence);
+            }
+        }
+        droppedPosition = size;
+    }
+
+    /**
+     * 打开已有的分段, 删除已经全部保存的分段, 最后一个分段作为当前分段继续追加
+     *
+     * @return 最后一条有效记录的序号, 没有记录时返回 0
+     */
+    private long open() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        files.sort((a, b) -> Long.compare(firstSequence(a), firstSequence(b)));
+        long last = 0;
+        for (int i = 0; i < files.size(); i++) {
+            Path file = files.get(i);
+            Segment segment = mapSegment(file, firstSequence(file));
+            boolean tail = i == files.size() - 1;
+            long[] lastSequence = {last};
+            segment.position = scan(segment, last, (sequence, offset) -> lastSequence[0] = sequence);
+            if (!tail && segment.position + HEADER <= segment.buffer.capacity()
+                    && segment.buffer.getInt(segment.position) != 0) {
+                log.warn("Journal segment {} is corrupted after sequence {}", file, lastSequence[0]);
+            }
+            last = lastSequence[0];
+            if (!tail && last <= checkpoint) {
+                delete(segment);
+                continue;
+            }
+            segments.add(segment);
+            if (tail) {
+                zero(segment.buffer, segment.position);
+                current = segment;
+            }
+        }
+        return last;
+    }
+
+    private static long firstSequence(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+    private Segment createSegment(long first) throws IOException {
+        Path file = directory.resolve(String.format("%020d%s", first, SUFFIX));
+        return mapSegment(file, first);
+    }
+
+    private Segment mapSegment(Path file, long first) throws IOException {
+        FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = Math.max(channel.size(), segmentSize);
+        return new Segment(first, file, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+    }
+
+    /**
+     * 顺序读取分段中的有效记录, 遇到空记录、越界、序号不连续或者校验失败时停止
+     *
+     * @param previous 上一条记录的序号, 为 0 时不检查第一条记录的序号
+     * @return 最后一条有效记录之后的位置
+     */
+    private int scan(Segment segment, long previous, RecordVisitor visitor) {
+        ByteBuffer buffer = segment.buffer.duplicate();
+        int position = 0;
+        while (position + HEADER <= buffer.capacity()) {
+            int size = buffer.getInt(position);
+            if (size < HEADER || position + size > buffer.capacity()) {
+                break;
+            }
+            long sequence = buffer.getLong(position + 8);
+            if (previous > 0 && sequence != previous + 1) {
+                break;
+            }
+            buffer.limit(position + size).position(position + HEADER);
+            CRC32 checksum = new CRC32();
+            checksum.update(buffer);
+            buffer.clear();
+            if ((int) checksum.getValue() != buffer.getInt(position + 4)) {
+                break;
+            }
+            visitor.visit(sequence, position);
+            previous = sequence;
+            position += size;
+        }
+        return position;
+    }
+
+    private static void zero(MappedByteBuffer buffer, int from) {
+        int position = from;
+        for (; position + Long.BYTES <= buffer.capacity(); position += Long.BYTES) {
+            buffer.putLong(position, 0L);
+        }
+        for (; position < buffer.capacity(); position++) {
+            buffer.put(position, (byte) 0);
+        }
+    }
+
+    /**
+     * 按顺序重放检查点之后的数据, 只能在追加新数据之前调用
+     *
+     * @param consumer 接收序号和数据
+     */
+    public void replay(BiConsumer<Long, T> consumer) {
+        long from = checkpoint;
+        int count = 0;
+        for (Segment segment : new ArrayList<>(segments)) {
+            List<long[]> records = new ArrayList<>();
+            scan(segment, 0, (sequence, offset) -> {
+                if (sequence > from && sequence <= replayLimit && !dropped.contains(sequence)) {
+                    records.add(new long[]{sequence, offset});
+                }
+            });
+            for (long[] record : records) {
+                consumer.accept(record[0], decode(segment, (int) record[1]));
+                count++;
+            }
+        }
+        if (count > 0) {
+            log.info("Replayed {} journaled item(s) from {}", count, directory);
+        }
+    }
+
+    private T decode(Segment segment, int offset) {
+        ByteBuffer buffer = segment.buffer.duplicate();
+        int size = buffer.getInt(offset);
+        byte[] payload = new byte[size - HEADER];
+        buffer.position(offset + HEADER);
+        buffer.get(payload);
+        return codec.decode(payload);
+    }
+
+    /**
+     * 追加前加锁, 工人在锁内追加并入队, 保证日志顺序与队列顺序一致
+     */
+    public void lock() {
+        lock.lock();
+    }
+
+    public void unlock() {
+        lock.unlock();
+    }
+
+    /**
+     * 追加一条数据, 调用方需要持有锁
+     *
+     * @param entity   数据
+     * @param accepted 落盘后完成, 可以为空
+     * @return 序号
+     */
+    public long append(T entity, CompletableFuture<Void> accepted) {
+        byte[] payload = codec.encode(entity);
+        int size = HEADER + payload.length;
+        if (size > segmentSize) {
+            throw new IllegalArgumentException("Journal record of " + size + " bytes exceeds segment size " + segmentSize);
+        }
+        try {
+            if (current.position + size > current.buffer.capacity()) {
+                roll();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        long sequence = nextSequence++;
+        int position = current.position;
+        MappedByteBuffer buffer = current.buffer;
+        crc.reset();
+        crc.update(payload, 0, payload.length);
+        buffer.putLong(position + 8, sequence);
+        buffer.putInt(position + 4, (int) crc.getValue());
+        current.writer.position(position + HEADER);
+        current.writer.put(payload);
+        // 最后写入长度, 写了一半的记录在重放时被忽略
+        buffer.putInt(position, size);
+        current.position = position + size;
+        lastAppendPosition = position;
+        if (accepted != null) {
+            pending.add(new Pending(sequence, accepted));
+            JournalSyncer syncer = this.syncer;
+            if (syncer != null) {
+                syncer.wakeup();
+            }
+        }
+        return sequence;
+    }
+
+    /**
+     * 撤销最后一次追加 (入队失败时), 调用方需要持有锁
+     *
+     * @param sequence 最后一次追加的序号
+     */
+    public void discard(long sequence) {
+        if (sequence != nextSequence - 1) {
+            throw new IllegalStateException("Only the last appended record can be discarded");
+        }
+        current.buffer.putInt(lastAppendPosition, 0);
+        current.position = lastAppendPosition;
+        nextSequence--;
+    }
+
+    /**
+     * 当前分段写满, 落盘后切换到新的分段
+     */
+    private void roll() throws IOException {
+        current.buffer.force();
+        Segment segment = createSegment(nextSequence);
+        segments.add(segment);
+        current = segment;
+    }
+
+    /**
+     * 把已追加的数据落盘, 并确认这些数据
+     */
+    public void sync() {
+        long upTo;
+        MappedByteBuffer buffer;
+        boolean forceDropped;
+        lock.lock();
+        try {
+            upTo = nextSequence - 1;
+            buffer = current.buffer;
+            forceDropped = droppedDirty;
+            droppedDirty = false;
+        } finally {
+            lock.unlock();
+        }
+        buffer.force();
+        if (forceDropped) {
+            force(droppedChannel);
+        }
+        // 工人和 JournalSyncer 都会调用, 先看后取必须是一个整体, 否则一方取走另一方看到的元素, 该元素永远不会确认
+        synchronized (pending) {
+            for (Pending item = pending.peek(); item != null && item.sequence <= upTo; item = pending.peek()) {
+                pending.poll();
+                item.accepted.complete(null);
+            }
+        }
+    }
+
+    /**
+     * 有待确认的数据时落盘
+     *
+     * @return 是否落盘
+     */
+    boolean syncIfPending() {
+        if (pending.isEmpty()) {
+            return false;
+        }
+        sync();
+        return true;
+    }
+
+    void setSyncer(JournalSyncer syncer) {
+        this.syncer = syncer;
+    }
+
+    /**
+     * 保留一条保存失败的数据, 之后的检查点停在它之前, 下次启动时重放
+     *
+     * @param sequence 序号
+     */
+    public void retain(long sequence) {
+        lock.lock();
+        try {
+            if (sequence > checkpoint) {
+                retained.add(sequence);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 标记一条不会再保存的数据, 提交方已经收到失败, 重放时跳过; 标记在下一次 {@link #sync()} 时落盘
+     *
+     * @param sequence 序号
+     */
+    public void drop(long sequence) {
+        lock.lock();
+        try {
+            if (sequence <= checkpoint || !dropped.add(sequence)) {
+                return;
+            }
+            droppedBuffer.clear();
+            droppedBuffer.putLong(sequence).flip();
+            droppedChannel.write(droppedBuffer, droppedPosition);
+            droppedPosition += Long.BYTES;
+            droppedDirty = true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void force(FileChannel channel) {
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 记录已处理的最大序号, 删除其中数据已经全部保存的分段; 存在保留的数据时检查点停在最早的一条之前
+     *
+     * @param sequence 序号
+     */
+    public void checkpoint(long sequence) {
+        lock.lock();
+        try {
+            if (!retained.isEmpty()) {
+                sequence = Math.min(sequence, retained.first() - 1);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (sequence <= checkpoint) {
+            return;
+        }
+        try {
+            checkpointBuffer.clear();
+            checkpointBuffer.putLong(sequence).flip();
+            checkpointChannel.write(checkpointBuffer, 0);
+            checkpointChannel.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        checkpoint = sequence;
+        lock.lock();
+        try {
+            dropped.headSet(sequence, true).clear();
+            if (dropped.isEmpty() && droppedPosition > 0) {
+                // 检查点已经越过所有丢弃的序号, 清空 dropped 文件
+                droppedChannel.truncate(0);
+                droppedPosition = 0;
+                droppedDirty = false;
+            }
+            while (segments.size() > 1) {
+                Segment first = segments.poll();
+                Segment second = segments.peek();
+                if (second.first > sequence + 1) {
+                    segments.addFirst(first);
+                    break;
+                }
+                delete(first);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void delete(Segment segment) {
+        try {
+            segment.channel.close();
+            Files.deleteIfExists(segment.file);
+        } catch (IOException e) {
+            log.warn("Failed to delete journal segment {}: {}", segment.file, e.getMessage());
+        }
+    }
+
+    public long getCheckpoint() {
+        return checkpoint;
+    }
+
+    @Override
+    public void close() throws IOException {
+        sync();
+        lock.lock();
+        try {
+            for (Segment segment : segments) {
+                segment.channel.close();
+            }
+            checkpointChannel.close();
+            droppedChannel.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @FunctionalInterface
+    private interface RecordVisitor {
+        void visit(long sequence, int offset);
+    }
+
+    private static class Segment {
+        private final long first;
+        private final Path file;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private final ByteBuffer writer;
+        private int position;
+
+        Segment(long first, Path file, FileChannel channel, MappedByteBuffer buffer) {
+            this.first = first;
+            this.file = file;
+            this.channel = channel;
+            this.buffer = buffer;
+            this.writer = buffer.duplicate();
+        }
+    }
+
+    private static class Pending {
+        private final long sequence;
+        private final CompletableFuture<Void> accepted;
+
+        Pending(long sequence, CompletableFuture<Void> accepted) {
+            this.sequence = sequence;
+            this.accepted = accepted;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.demo.batch;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * 日志中数据的编解码
+ *
+ * @param <T> 类型
+ * @author limaofeng
+ */
+public interface JournalCodec<T> {
+
+    byte[] encode(T entity);
+
+    T decode(byte[] bytes);
+
+    /**
+     * 使用 Jackson 编码为 JSON
+     *
+     * @param objectMapper ObjectMapper
+     * @param type         类型
+     * @param <T>          类型
+     * @return JournalCodec
+     */
+    static <T> JournalCodec<T> json(ObjectMapper objectMapper, Class<T> type) {
+        ObjectWriter writer = objectMapper.writerFor(type);
+        ObjectReader reader = objectMapper.readerFor(type);
+        return new JournalCodec<T>() {
+            @Override
+            public byte[] encode(T entity) {
+                try {
+                    return writer.writeValueAsBytes(entity);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public T decode(byte[] bytes) {
+                try {
+                    return reader.readValue(bytes);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.demo.batch;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 为 {@link BatchService#accept} 提交的数据做组提交
+ * <p>
+ * 工人只在保存每一批之前落盘, 工人正在执行 saver 时新接收的数据要等到下一批才能确认。
+ * 该线程在有待确认的数据时立即落盘, 上一次 fsync 期间到达的数据由下一次 fsync 一并确认
+ *
+ * @author limaofeng
+ */
+@Slf4j
+class JournalSyncer implements Runnable {
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final List<? extends Journal<?>> journals;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    JournalSyncer(List<? extends Journal<?>> journals, String name) {
+        this.journals = journals;
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+        journals.forEach(journal -> journal.setSyncer(this));
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    void wakeup() {
+        LockSupport.unpark(thread);
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            boolean synced = false;
+            for (Journal<?> journal : journals) {
+                try {
+                    synced |= journal.syncIfPending();
+                } catch (RuntimeException e) {
+                    log.error("Failed to sync journal: {}", e.getMessage(), e);
+                }
+            }
+            if (!synced) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    void stop() {
+        running = false;
+        wakeup();
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.demo.batch;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+
+/**
+ * 按 key 路由: 相同 key 的数据总是进入同一个工人的队列, 保证单个 key 的处理顺序,
+ * 不同的 key 仍然分散到所有工人上并行处理。key 为空时随机选择
+ *
+ * @param <T> 类型
+ * @author limaofeng
+ */
+public class KeyAffinityRouter<T> implements WorkerRouter<T> {
+
+  private final Function<? super T, ?> keyExtractor;
+
+  public KeyAffinityRouter(Function<? super T, ?> keyExtractor) {
+    this.keyExtractor = keyExtractor;
+  }
+
+  static int spread(int h) {
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    return h & Integer.MAX_VALUE;
+  }
+
+  @Override
+  public int route(T entity, List<? extends Worker<T, ?>> workers) {
+    Object key = keyExtractor.apply(entity);
+    if (key == null) {
+      return ThreadLocalRandom.current().nextInt(workers.size());
+    }
+    return spread(key.hashCode()) % workers.size();
+  }
+}
@@ -11,7 +11,7 @@ import java.util.concurrent.locks.ReentrantLock;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
-public class LinkedQueue<E> extends AbstractQueue<E> implements BlockingQueue<E>, java.io.Serializable {
+public class LinkedQueue<E> extends AbstractQueue<E> implements BlockingQueue<E>, BulkQueue<E>, java.io.Serializable {
 
     private static final long serialVersionUID = -4457362206741191196L;
 
@@ -205,6 +205,43 @@ public class LinkedQueue<E> extends AbstractQueue<E> implements BlockingQueue<E>
         return c >= 0;
     }
 
+    @Override
+    public boolean offerAll(Collection<? extends E> c) {
+        int n = c.size();
+        if (n == 0) {
+            return true;
+        }
+        for (E o : c) {
+            if (o == null) {
+                throw new NullPointerException();
+            }
+        }
+        final AtomicInteger count = this.count;
+        if (count.get() > capacity - n) {
+            return false;
+        }
+        int size = -1;
+        final ReentrantLock putLock = this.putLock;
+        putLock.lock();
+        try {
+            if (count.get() <= capacity - n) {
+                for (E o : c) {
+                    insert(o);
+                }
+                size = count.getAndAdd(n);
+                if (size + n < capacity) {
+                    notFull.signal();
+                }
+            }
+        } finally {
+            putLock.unlock();
+        }
+        if (size == 0) {
+            signalNotEmpty();
+        }
+        return size >= 0;
+    }
+
     @Override
     public E take() throws InterruptedException {
         E x;
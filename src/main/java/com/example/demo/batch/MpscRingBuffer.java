@@ -0,0 +1,317 @@
+package com.example.demo.batch;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 有界、无锁的多生产者单消费者环形队列
+ * <p>
+ * 槽位在构造时一次性分配, 每个槽位带一个序号 (Vyukov 算法): 生产者通过 CAS 抢占生产者序号,
+ * 写入元素后发布槽位序号; 消费者按顺序读取并回收槽位, 整个过程不需要加锁。
+ * <p>
+ * 注意: {@link #take()}、{@link #poll(long, TimeUnit)} 等阻塞的消费方法只允许一个线程调用,
+ * 适合作为 {@link Worker} 的队列使用。{@link #poll()} 通过 CAS 推进消费者序号,
+ * 生产者在 {@link OverflowPolicy#SHED_OLDEST} 策略下可以安全地从其他线程淘汰最旧的元素
+ *
+ * @param <E> 元素类型
+ * @author limaofeng
+ */
+public class MpscRingBuffer<E> extends AbstractQueue<E> implements BlockingQueue<E>, BulkQueue<E> {
+
+    /**
+     * 队列满时生产者自旋等待的间隔
+     */
+    private static final long PRODUCER_BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final int capacity;
+    private final int mask;
+    private final Object[] buffer;
+    private final AtomicLongArray sequences;
+
+    private final Sequence producerIndex = new Sequence(0);
+    private final Sequence consumerIndex = new Sequence(0);
+
+    /**
+     * 在 take / poll(timeout) 中挂起的消费者线程
+     */
+    private volatile Thread waiter;
+
+    public MpscRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.capacity = roundToPowerOfTwo(capacity);
+        this.mask = this.capacity - 1;
+        this.buffer = new Object[this.capacity];
+        this.sequences = new AtomicLongArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++) {
+            sequences.lazySet(i, i);
+        }
+    }
+
+    private static int roundToPowerOfTwo(int value) {
+        if (value > (1 << 30)) {
+            throw new IllegalArgumentException("capacity is too large: " + value);
+        }
+        return value == 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    @Override
+    public boolean offer(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        long position;
+        int index;
+        for (; ; ) {
+            position = producerIndex.get();
+            index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (producerIndex.compareAndSet(position, position + 1)) {
+                    break;
+                }
+            } else if (difference < 0) {
+                return false;
+            }
+        }
+        buffer[index] = e;
+        sequences.set(index, position + 1);
+        signalNotEmpty();
+        return true;
+    }
+
+    /**
+     * 一次 CAS 抢占连续的 n 个槽位, 再按顺序写入并发布
+     * <p>
+     * 消费者回收槽位时先推进消费者序号再发布槽位序号, 所以抢到的槽位可能还没有回收完, 写入前需要短暂自旋
+     */
+    @Override
+    public boolean offerAll(Collection<? extends E> c) {
+        int n = c.size();
+        if (n == 0) {
+            return true;
+        }
+        if (n > capacity) {
+            return false;
+        }
+        for (E e : c) {
+            if (e == null) {
+                throw new NullPointerException();
+            }
+        }
+        long position;
+        for (; ; ) {
+            position = producerIndex.get();
+            if (position + n - consumerIndex.get() > capacity) {
+                return false;
+            }
+            if (producerIndex.compareAndSet(position, position + n)) {
+                break;
+            }
+        }
+        for (E e : c) {
+            int index = (int) position & mask;
+            while (sequences.get(index) != position) {
+                Thread.yield();
+            }
+            buffer[index] = e;
+            sequences.set(index, position + 1);
+            position++;
+        }
+        signalNotEmpty();
+        return true;
+    }
+
+    private void signalNotEmpty() {
+        Thread thread = waiter;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    @Override
+    public void put(E e) throws InterruptedException {
+        while (!offer(e)) {
+            LockSupport.parkNanos(this, PRODUCER_BACKOFF_NANOS);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!offer(e)) {
+            long nanos = deadline - System.nanoTime();
+            if (nanos <= 0) {
+                return false;
+            }
+            LockSupport.parkNanos(this, Math.min(nanos, PRODUCER_BACKOFF_NANOS));
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        for (; ; ) {
+            long position = consumerIndex.get();
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (consumerIndex.compareAndSet(position, position + 1)) {
+                    E e = (E) buffer[index];
+                    buffer[index] = null;
+                    sequences.lazySet(index, position + capacity);
+                    return e;
+                }
+            } else if (difference < 0) {
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        E e = poll();
+        while (e == null) {
+            waiter = Thread.currentThread();
+            e = poll();
+            if (e == null) {
+                LockSupport.park(this);
+                e = poll();
+            }
+            waiter = null;
+            if (e == null && Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+        return e;
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        E e = poll();
+        if (e != null) {
+            return e;
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (e == null) {
+            long nanos = deadline - System.nanoTime();
+            if (nanos <= 0) {
+                return null;
+            }
+            waiter = Thread.currentThread();
+            e = poll();
+            if (e == null) {
+                LockSupport.parkNanos(this, nanos);
+                e = poll();
+            }
+            waiter = null;
+            if (e == null && Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+        return e;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E peek() {
+        long position = consumerIndex.get();
+        int index = (int) position & mask;
+        if (sequences.get(index) != position + 1) {
+            return null;
+        }
+        return (E) buffer[index];
+    }
+
+    @Override
+    public int size() {
+        long after = consumerIndex.get();
+        for (; ; ) {
+            long before = after;
+            long producer = producerIndex.get();
+            after = consumerIndex.get();
+            if (before == after) {
+                long size = producer - after;
+                return (int) Math.max(0, Math.min(size, capacity));
+            }
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return producerIndex.get() == consumerIndex.get();
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return capacity - size();
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        if (c == null) {
+            throw new NullPointerException();
+        }
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        int n = 0;
+        while (n < maxElements) {
+            E e = poll();
+            if (e == null) {
+                break;
+            }
+            c.add(e);
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * 返回队列当前内容的快照, 弱一致, 不支持 remove
+     */
+    @Override
+    @SuppressWarnings({"unchecked", "NullableProblems"})
+    public Iterator<E> iterator() {
+        long position = consumerIndex.get();
+        long limit = producerIndex.get();
+        List<E> snapshot = new ArrayList<>((int) Math.max(0, Math.min(limit - position, capacity)));
+        for (; position < limit; position++) {
+            int index = (int) position & mask;
+            if (sequences.get(index) != position + 1) {
+                break;
+            }
+            Object e = buffer[index];
+            if (e == null || sequences.get(index) != position + 1) {
+                break;
+            }
+            snapshot.add((E) e);
+        }
+        return Collections.unmodifiableList(snapshot).iterator();
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.demo.batch;
+
+/**
+ * 工人队列满时的处理策略
+ *
+ * @author limaofeng
+ */
+public enum OverflowPolicy {
+    /**
+     * 阻塞提交线程, 最多等待 offerTimeout, 超时后拒绝
+     */
+    BLOCK,
+    /**
+     * 立即拒绝
+     */
+    FAIL_FAST,
+    /**
+     * 丢弃队列中最旧的一条, 让新数据入队
+     */
+    SHED_OLDEST
+}
@@ -0,0 +1,28 @@
+package com.example.demo.batch;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 二选一路由: 随机取两个工人, 选择队列较短的一个
+ *
+ * @param <T> 类型
+ * @author limaofeng
+ */
+public class PowerOfTwoChoicesRouter<T> implements WorkerRouter<T> {
+
+  @Override
+  public int route(T entity, List<? extends Worker<T, ?>> workers) {
+    int size = workers.size();
+    if (size == 1) {
+      return 0;
+    }
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    int first = random.nextInt(size);
+    int second = random.nextInt(size - 1);
+    if (second >= first) {
+      second++;
+    }
+    return workers.get(first).getQueueSize() <= workers.get(second).getQueueSize() ? first : second;
+  }
+}
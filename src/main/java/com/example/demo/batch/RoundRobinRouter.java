@@ -0,0 +1,30 @@
+package com.example.demo.batch;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 轮询路由
+ *
+ * @param <T> 类型
+ * @author limaofeng
+ */
+public class RoundRobinRouter<T> implements WorkerRouter<T> {
+
+  private final AtomicInteger atomicInteger = new AtomicInteger(0);
+
+  public final int getAndIncrement() {
+    int current;
+    int next;
+    do {
+      current = this.atomicInteger.get();
+      next = current >= 214748364 ? 0 : current + 1;
+    } while (!this.atomicInteger.compareAndSet(current, next));
+    return next;
+  }
+
+  @Override
+  public int route(T entity, List<? extends Worker<T, ?>> workers) {
+    return getAndIncrement() % workers.size();
+  }
+}
@@ -0,0 +1,49 @@
+package com.example.demo.batch;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * 带缓存行填充的序号
+ * <p>
+ * 生产者序号与消费者序号会被不同线程高频写入, 前后各填充 7 个 long,
+ * 避免两者 (或与其他对象) 落在同一缓存行上产生伪共享
+ *
+ * @author limaofeng
+ */
+class Sequence extends SequenceRhsPadding {
+
+    private static final AtomicLongFieldUpdater<SequenceValue> UPDATER =
+            AtomicLongFieldUpdater.newUpdater(SequenceValue.class, "value");
+
+    Sequence(long initialValue) {
+        this.value = initialValue;
+    }
+
+    long get() {
+        return value;
+    }
+
+    void set(long newValue) {
+        value = newValue;
+    }
+
+    void lazySet(long newValue) {
+        UPDATER.lazySet(this, newValue);
+    }
+
+    boolean compareAndSet(long expect, long update) {
+        return UPDATER.compareAndSet(this, expect, update);
+    }
+}
+
+abstract class SequenceLhsPadding {
+    long p01, p02, p03, p04, p05, p06, p07;
+}
+
+abstract class SequenceValue extends SequenceLhsPadding {
+    volatile long value;
+}
+
+abstract class SequenceRhsPadding extends SequenceValue {
+    long p11, p12, p13, p14, p15, p16, p17;
+}
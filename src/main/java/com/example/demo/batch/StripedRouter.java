@@ -0,0 +1,22 @@
+package com.example.demo.batch;
+
+import java.util.List;
+
+/**
+ * 线程本地轮询: 每个提交线程从各自的起点开始轮询, 线程之间不共享任何计数器
+ *
+ * @param <T> 类型
+ * @author limaofeng
+ */
+public class StripedRouter<T> implements WorkerRouter<T> {
+
+  private final ThreadLocal<int[]> stripe =
+      ThreadLocal.withInitial(() -> new int[] {KeyAffinityRouter.spread(Thread.currentThread().hashCode())});
+
+  @Override
+  public int route(T entity, List<? extends Worker<T, ?>> workers) {
+    int[] counter = stripe.get();
+    int next = counter[0]++ & Integer.MAX_VALUE;
+    return next % workers.size();
+  }
+}
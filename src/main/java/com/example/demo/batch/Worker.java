@@ -3,66 +3,996 @@ package com.example.demo.batch;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Slf4j
 public class Worker<T, R> implements Runnable {
-    private final LinkedQueue<Cargo<T, R>> queue = new LinkedQueue<>();
+    /**
+     * 空闲时等待数据的间隔, 用于及时发现停机信号
+     */
+    private static final long IDLE_POLL_MILLIS = 100;
+    /**
+     * 有序流水线中等待前一批保存时每次取数的间隔, 用于及时发现前一批已经保存完
+     */
+    private static final long TOP_UP_POLL_MICROS = 500;
+
+    private final BlockingQueue<Cargo<T, R>> queue;
     private final int batchSize;
+    private final long lingerNanos;
+    private final OverflowPolicy overflowPolicy;
+    private final long offerTimeoutNanos;
+    private final int bisectDepth;
+    private final int bisectRetries;
     private final Consumer<List<Cargo<T, R>>> saver;
+    private final Function<? super T, ?> coalesceKey;
+    private final BinaryOperator<T> coalesceMerge;
+    private final BatchMetrics metrics;
+    /**
+     * 自适应批大小, 为空时使用固定的 batchSize
+     */
+    private final BatchSizeController sizeController;
+    /**
+     * 流水线模式下同时在途的最大批次数
+     */
+    private final int maxInFlight;
+    private final boolean ordered;
+    /**
+     * 流水线模式下剩余的在途批次额度
+     */
+    private final Semaphore inFlight;
+    /**
+     * 流水线模式下已经交给保存线程池、还未开始保存的批次
+     */
+    private final Set<FlushTask> pendingFlushes = ConcurrentHashMap.newKeySet();
+    /**
+     * 流水线模式下执行保存的线程池, 为空时工人在自己的线程中保存
+     */
+    private Executor flushExecutor;
+    /**
+     * 预写日志, 为空时不记录
+     */
+    private final Journal<T> journal;
+    /**
+     * 启用日志时队列的剩余位置, 提交方先占位再追加日志, 等待队列空间时不持有日志锁; 队列无界时为空
+     */
+    private final Semaphore capacity;
+
+    private volatile boolean running = true;
+    private volatile long shutdownDeadline;
+    /**
+     * 正在入队的提交数, 停机时等它们结束之后再放弃队列中的剩余数据, 以免有数据在 {@link #abandon()} 之后入队
+     */
+    private final AtomicInteger submitting = new AtomicInteger();
+
+    private static final int IDLE = 0;
+    private static final int ARMED = 1;
+    private static final int FLUSHING = 2;
+
+    /**
+     * 调度模式下使用的刷新线程, 为空时工人独占一个线程运行 {@link #run()}
+     */
+    private final FlushScheduler scheduler;
+    /**
+     * 调度模式下的状态: 空闲、已设定超时刷新、正在刷新 (或已提交刷新任务)
+     */
+    private final AtomicInteger state = new AtomicInteger(IDLE);
+
+    /**
+     * 队列满的次数
+     */
+    private final LongAdder queueFullCount = new LongAdder();
+    /**
+     * 被拒绝的提交数
+     */
+    private final LongAdder rejectedCount = new LongAdder();
+    /**
+     * 被挤出队列的数据数
+     */
+    private final LongAdder shedCount = new LongAdder();
+    /**
+     * 被合并掉的重复数据数
+     */
+    private final LongAdder coalescedCount = new LongAdder();
 
     public Worker(Consumer<List<Cargo<T, R>>> saver, int batchSize) {
+        this(saver, BatchOptions.<T, R>builder().batchSize(batchSize).build());
+    }
+
+    public Worker(Consumer<List<Cargo<T, R>>> saver, int batchSize, BlockingQueue<Cargo<T, R>> queue) {
+        this(saver, BatchOptions.<T, R>builder().batchSize(batchSize).queueFactory(() -> queue).build());
+    }
+
+    public Worker(Consumer<List<Cargo<T, R>>> saver, BatchOptions<T, R> options) {
+        this(saver, options, BatchMetrics.NOOP);
+    }
+
+    public Worker(Consumer<List<Cargo<T, R>>> saver, BatchOptions<T, R> options, BatchMetrics metrics) {
+        this(saver, options, metrics, null);
+    }
+
+    public Worker(Consumer<List<Cargo<T, R>>> saver, BatchOptions<T, R> options, BatchMetrics metrics, Journal<T> journal) {
         this.saver = saver;
-        this.batchSize = batchSize;
+        this.metrics = metrics;
+        this.journal = journal;
+        this.batchSize = options.getBatchSize();
+        this.queue = options.newQueue();
+        this.lingerNanos = options.getLingerNanos();
+        this.overflowPolicy = options.getOverflowPolicy();
+        this.offerTimeoutNanos = options.getOfferTimeoutNanos();
+        this.bisectDepth = options.getBisectDepth();
+        this.bisectRetries = options.getBisectRetries();
+        this.scheduler = options.getScheduler();
+        this.coalesceKey = options.getCoalesceKey();
+        this.coalesceMerge = options.getCoalesceMerge();
+        this.sizeController = options.getTargetFlushNanos() > 0
+                ? new BatchSizeController(batchSize, options.getMinBatchSize(), options.getMaxBatchSize(),
+                options.getTargetFlushNanos())
+                : null;
+        this.maxInFlight = options.getMaxInFlight();
+        this.ordered = options.isOrdered();
+        this.inFlight = new Semaphore(maxInFlight);
+        this.capacity = journal != null && queue.remainingCapacity() != Integer.MAX_VALUE
+                ? new Semaphore(queue.remainingCapacity())
+                : null;
+    }
+
+    /**
+     * 进入流水线模式, 在 {@link #run()} 之前调用
+     *
+     * @param executor 执行保存的线程池
+     */
+    void pipeline(Executor executor) {
+        this.flushExecutor = executor;
     }
 
     public CompletableFuture<R> add(T o) {
         Cargo<T, R> item = Cargo.of(o);
-        queue.add(item);
+        if (!enter()) {
+            stopped(item);
+            return item.getHearthstone();
+        }
+        try {
+            if ((journal != null ? enqueueJournaled(item, null) : enqueue(item)) && scheduler != null) {
+                signal();
+            }
+        } finally {
+            submitting.decrementAndGet();
+        }
         return item.getHearthstone();
     }
 
-    public List<Cargo<T, R>> getItems() {
+    /**
+     * 开始一次提交, 先登记再检查状态, 与 {@link #shutdown(long)} 之后的 {@link #abandon()} 配合,
+     * 保证登记成功的提交在 abandon 清空队列之前完成入队
+     *
+     * @return 工人是否仍在运行, 返回 true 时调用方需要在入队之后减少 submitting
+     */
+    private boolean enter() {
+        submitting.incrementAndGet();
+        if (running) {
+            return true;
+        }
+        submitting.decrementAndGet();
+        return false;
+    }
+
+    private void stopped(Cargo<T, R> item) {
+        item.getHearthstone().completeExceptionally(
+                new BatchRejectedException(BatchRejectedException.Reason.SHUTDOWN, "Worker has been stopped"));
+        item.settled();
+    }
+
+    /**
+     * 提交数据, 数据写入预写日志并落盘后即完成, 不等待 saver
+     * <p>
+     * 未启用日志时等同于 {@link #add(Object)} 完成
+     *
+     * @param o 数据
+     * @return 落盘后完成; 被拒绝时以 {@link BatchRejectedException} 失败
+     */
+    public CompletableFuture<Void> accept(T o) {
+        if (journal == null) {
+            return add(o).thenApply(result -> null);
+        }
+        Cargo<T, R> item = Cargo.of(o);
+        item.setDurable(true);
+        CompletableFuture<Void> accepted = new CompletableFuture<>();
+        if (!enter()) {
+            stopped(item);
+            item.getHearthstone().whenComplete((result, e) -> accepted.completeExceptionally(e));
+            return accepted;
+        }
         try {
-            Cargo<T, R> item = queue.take();
-            List<Cargo<T, R>> items = new ArrayList<>(batchSize);
-            items.add(item);
-            item = queue.poll();
-            while (item != null) {
-                items.add(item);
+            if (enqueueJournaled(item, accepted)) {
+                if (scheduler != null) {
+                    signal();
+                }
+            } else {
+                item.getHearthstone().whenComplete((result, e) -> accepted.completeExceptionally(e));
+            }
+        } finally {
+            submitting.decrementAndGet();
+        }
+        return accepted;
+    }
+
+    /**
+     * 把一组数据放入本工人的队列
+     * <p>
+     * 队列支持 {@link BulkQueue} 时整组只入队一次, 容量不足时退回到逐条入队并按 overflowPolicy 处理
+     *
+     * @param entities 数据
+     * @return 组内数据全部处理完毕后完成, 单条结果从各个 Cargo 中读取
+     */
+    public CompletableFuture<List<Cargo<T, R>>> addAll(Collection<? extends T> entities) {
+        CargoGroup<T, R> group = new CargoGroup<>(entities.size());
+        List<Cargo<T, R>> items = new ArrayList<>(entities.size());
+        for (T o : entities) {
+            items.add(Cargo.of(o, group));
+        }
+        group.setCargos(items);
+        if (!enter()) {
+            items.forEach(this::stopped);
+            return group.getFuture();
+        }
+        boolean enqueued = false;
+        try {
+            enqueued = enqueueAll(items);
+        } finally {
+            submitting.decrementAndGet();
+        }
+        if (enqueued && scheduler != null) {
+            signal();
+        }
+        return group.getFuture();
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean enqueueAll(List<Cargo<T, R>> items) {
+        boolean enqueued = false;
+        if (journal != null) {
+            for (Cargo<T, R> item : items) {
+                enqueued |= enqueueJournaled(item, null);
+            }
+        } else if (queue instanceof BulkQueue && ((BulkQueue<Cargo<T, R>>) queue).offerAll(items)) {
+            enqueued = true;
+        } else {
+            for (Cargo<T, R> item : items) {
+                enqueued |= enqueue(item);
+            }
+        }
+        return enqueued;
+    }
+
+    /**
+     * 放入队列, 队列已满时按 overflowPolicy 处理, 最终被拒绝的数据以 QUEUE_FULL 失败
+     *
+     * @return 是否入队
+     */
+    private boolean enqueue(Cargo<T, R> item) {
+        if (queue.offer(item)) {
+            return true;
+        }
+        queueFullCount.increment();
+        if (overflow(item)) {
+            return true;
+        }
+        reject(item);
+        return false;
+    }
+
+    private void reject(Cargo<T, R> item) {
+        rejectedCount.increment();
+        item.getHearthstone().completeExceptionally(
+                new BatchRejectedException(BatchRejectedException.Reason.QUEUE_FULL, "Worker queue is full"));
+        item.settled();
+    }
 
-                if (items.size() >= batchSize) {
-                    return items;
+    /**
+     * 先在锁外占用队列中的一个位置, 再在日志锁内追加日志并入队, 保证日志顺序与队列顺序一致
+     *
+     * @return 是否入队
+     */
+    private boolean enqueueJournaled(Cargo<T, R> item, CompletableFuture<Void> accepted) {
+        if (!reserve()) {
+            reject(item);
+            return false;
+        }
+        boolean enqueued = false;
+        journal.lock();
+        try {
+            long sequence = journal.append(item.getContent(), accepted);
+            item.setSequence(sequence);
+            enqueued = queue.offer(item);
+            if (!enqueued) {
+                journal.discard(sequence);
+            }
+        } finally {
+            journal.unlock();
+            if (!enqueued) {
+                release(1);
+            }
+        }
+        if (!enqueued) {
+            reject(item);
+        }
+        return enqueued;
+    }
+
+    /**
+     * 启用日志时占用队列中的一个位置, 已满时按 overflowPolicy 等待或者挤出最早的数据
+     *
+     * @return 是否占到位置
+     */
+    private boolean reserve() {
+        if (capacity == null || capacity.tryAcquire()) {
+            return true;
+        }
+        queueFullCount.increment();
+        switch (overflowPolicy) {
+            case BLOCK:
+                try {
+                    return capacity.tryAcquire(offerTimeoutNanos, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            case SHED_OLDEST:
+                while (!capacity.tryAcquire()) {
+                    Cargo<T, R> eldest = queue.poll();
+                    if (eldest != null) {
+                        // 被挤出的数据空出的位置直接归新数据所有
+                        shed(eldest);
+                        return true;
+                    }
                 }
+                return true;
+            case FAIL_FAST:
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 启用日志时归还队列中的位置, 在取出数据或者撤销占位之后调用
+     */
+    private void release(int count) {
+        if (capacity != null && count > 0) {
+            capacity.release(count);
+        }
+    }
+
+    private void shed(Cargo<T, R> eldest) {
+        shedCount.increment();
+        eldest.getHearthstone().completeExceptionally(
+                new BatchRejectedException(BatchRejectedException.Reason.SHED, "Shed by newer submission"));
+        unsaved(eldest);
+        eldest.settled();
+    }
+
+    /**
+     * 数据最终没有保存: 已经确认落盘的留在日志中等待重放, 其余的在日志中标记为丢弃, 重放时跳过
+     */
+    private void unsaved(Cargo<T, R> item) {
+        if (journal == null || item.getSequence() < 0) {
+            return;
+        }
+        if (item.isDurable()) {
+            journal.retain(item.getSequence());
+        } else {
+            journal.drop(item.getSequence());
+        }
+    }
 
-                item = queue.poll();
+    /**
+     * 把日志中检查点之后的数据重新放入队列, 启动时在接收新数据之前调用
+     */
+    void replay() {
+        if (journal == null) {
+            return;
+        }
+        journal.replay((sequence, content) -> {
+            Cargo<T, R> item = Cargo.of(content);
+            item.setSequence(sequence);
+            item.setDurable(true);
+            item.getHearthstone().whenComplete((result, e) -> {
+                if (e != null) {
+                    log.warn("Replayed item {} failed: {}", sequence, e.getMessage());
+                }
+            });
+            try {
+                if (capacity != null) {
+                    capacity.acquire();
+                }
+                queue.put(item);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while replaying the journal", e);
             }
-            return items;
+            if (scheduler != null) {
+                signal();
+            }
+        });
+    }
+
+    Journal<T> getJournal() {
+        return journal;
+    }
+
+    /**
+     * 按 overflowPolicy 处理队列已满的情况
+     *
+     * @return 是否最终入队
+     */
+    private boolean overflow(Cargo<T, R> item) {
+        switch (overflowPolicy) {
+            case BLOCK:
+                try {
+                    return queue.offer(item, offerTimeoutNanos, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            case SHED_OLDEST:
+                do {
+                    Cargo<T, R> eldest = queue.poll();
+                    if (eldest != null) {
+                        shed(eldest);
+                    }
+                } while (!queue.offer(item));
+                return true;
+            case FAIL_FAST:
+            default:
+                return false;
+        }
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    public long getQueueFullCount() {
+        return queueFullCount.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    public long getShedCount() {
+        return shedCount.sum();
+    }
+
+    public long getCoalescedCount() {
+        return coalescedCount.sum();
+    }
+
+    /**
+     * @return 流水线模式下已经取出、还未保存完的批次数
+     */
+    public int getInFlight() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    /**
+     * @return 当前批大小, 启用自适应时随保存耗时变化
+     */
+    public int getBatchSize() {
+        return sizeController != null ? sizeController.limit() : batchSize;
+    }
+
+    public List<Cargo<T, R>> getItems() {
+        Cargo<T, R> item;
+        try {
+            item = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
         } catch (InterruptedException e) {
             log.error(e.getMessage());
             throw new RuntimeException(e.getMessage());
         }
+        if (item == null) {
+            return Collections.emptyList();
+        }
+        int limit = getBatchSize();
+        List<Cargo<T, R>> items = new ArrayList<>(limit);
+        items.add(item);
+        queue.drainTo(items, limit - 1);
+        if (lingerNanos > 0) {
+            try {
+                linger(items, limit);
+            } catch (InterruptedException e) {
+                // 已经取出的数据照常保存
+                Thread.currentThread().interrupt();
+            }
+        }
+        release(items.size());
+        return items;
+    }
+
+    /**
+     * 在 lingerNanos 内继续凑批, 凑满 limit 或者超时即返回
+     */
+    private void linger(List<Cargo<T, R>> items, int limit) throws InterruptedException {
+        long deadline = System.nanoTime() + lingerNanos;
+        while (items.size() < limit) {
+            long nanos = deadline - System.nanoTime();
+            if (nanos <= 0) {
+                return;
+            }
+            Cargo<T, R> item = queue.poll(nanos, TimeUnit.NANOSECONDS);
+            if (item == null) {
+                return;
+            }
+            items.add(item);
+            queue.drainTo(items, limit - items.size());
+        }
     }
 
     @Override
     public void run() {
-        do {
-            List<Cargo<T, R>> items = getItems();
+        if (flushExecutor != null) {
+            runPipelined();
+        } else {
+            while (running) {
+                try {
+                    List<Cargo<T, R>> items = getItems();
+                    if (!items.isEmpty()) {
+                        save(items);
+                    }
+                } catch (RuntimeException e) {
+                    // 工人线程退出后队列再也没有人消费, 出错时记录后继续
+                    log.error(e.getMessage(), e);
+                }
+            }
+        }
+        drain();
+    }
+
+    /**
+     * 流水线模式: 先占用一个在途额度再取数, 准备好的批次交给保存线程; 有序时每批在前一批保存完之后才开始
+     */
+    private void runPipelined() {
+        CompletableFuture<Void> tail = CompletableFuture.completedFuture(null);
+        while (running) {
+            try {
+                inFlight.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            List<Cargo<T, R>> items = Collections.emptyList();
+            FlushTask task = null;
+            try {
+                items = getItems();
+                if (items.isEmpty()) {
+                    inFlight.release();
+                    continue;
+                }
+                if (ordered) {
+                    topUp(items, tail);
+                }
+                task = new FlushTask(items, prepare(items));
+                pendingFlushes.add(task);
+                // 前一批无论成败都接着保存下一批, 保存线程池拒绝时由 abandon 结束
+                tail = ordered
+                        ? tail.handleAsync(task, flushExecutor)
+                        : CompletableFuture.runAsync(task, flushExecutor);
+            } catch (RuntimeException e) {
+                if (task != null) {
+                    task.cancel(e);
+                } else {
+                    inFlight.release();
+                    abort(items, e);
+                }
+            }
+        }
+        awaitInFlight();
+    }
+
+    /**
+     * 有序流水线: 前一批还在保存时这一批也不能开始, 保持打开继续从队列中取数,
+     * 直到前一批保存完、凑满当前批大小或者停机, 这样保存越慢批次越大
+     */
+    private void topUp(List<Cargo<T, R>> items, CompletableFuture<?> previous) {
+        int limit = getBatchSize();
+        int before = items.size();
+        try {
+            while (items.size() < limit && !previous.isDone() && running) {
+                Cargo<T, R> item = queue.poll(TOP_UP_POLL_MICROS, TimeUnit.MICROSECONDS);
+                if (item != null) {
+                    items.add(item);
+                    queue.drainTo(items, limit - items.size());
+                }
+            }
+        } catch (InterruptedException e) {
+            // 已经取出的数据照常保存
+            Thread.currentThread().interrupt();
+        } finally {
+            release(items.size() - before);
+        }
+    }
+
+    /**
+     * 流水线模式下交给保存线程池的一批数据, 开始保存之前一直登记在 pendingFlushes 中,
+     * 停机时还未开始的批次 (包括保存线程池已经拒绝的) 由 {@link #abandon()} 以失败结束
+     */
+    private final class FlushTask implements Runnable, BiFunction<Void, Throwable, Void> {
+        private final List<Cargo<T, R>> items;
+        private final List<Cargo<T, R>> batch;
+
+        FlushTask(List<Cargo<T, R>> items, List<Cargo<T, R>> batch) {
+            this.items = items;
+            this.batch = batch;
+        }
+
+        @Override
+        public void run() {
+            if (!pendingFlushes.remove(this)) {
+                return;
+            }
+            try {
+                write(items, batch);
+            } finally {
+                inFlight.release();
+            }
+        }
+
+        @Override
+        public Void apply(Void result, Throwable e) {
+            run();
+            return null;
+        }
+
+        /**
+         * 还未开始时以失败结束本批
+         *
+         * @return 结束的数据数, 已经开始保存时为 0
+         */
+        int cancel(RuntimeException e) {
+            if (!pendingFlushes.remove(this)) {
+                return 0;
+            }
+            try {
+                failAll(items, e);
+            } finally {
+                inFlight.release();
+            }
+            return items.size();
+        }
+    }
+
+    /**
+     * 等待在途的批次保存完, 之后剩余的数据由 {@link #drain()} 在当前线程按顺序保存
+     */
+    private void awaitInFlight() {
+        try {
+            long nanos = shutdownDeadline - System.nanoTime();
+            if (!inFlight.tryAcquire(maxInFlight, Math.max(0, nanos), TimeUnit.NANOSECONDS)) {
+                log.warn("{} batch(es) still in flight at the shutdown deadline", getInFlight());
+                return;
+            }
+            inFlight.release(maxInFlight);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 调度模式: 队列攒够 batchSize 时立即提交刷新任务, 否则按最早一条数据的等待时间设定超时刷新
+     */
+    private void signal() {
+        for (; ; ) {
+            int current = state.get();
+            if (current == FLUSHING) {
+                return;
+            }
+            if (queue.size() >= getBatchSize()) {
+                if (state.compareAndSet(current, FLUSHING)) {
+                    scheduler.execute(this::flush);
+                    return;
+                }
+            } else if (current == ARMED) {
+                return;
+            } else if (state.compareAndSet(IDLE, ARMED)) {
+                Cargo<T, R> eldest = queue.peek();
+                long delay = eldest == null ? lingerNanos : eldest.getSubmittedAt() + lingerNanos - System.nanoTime();
+                scheduler.schedule(this::expire, Math.max(0, delay));
+                return;
+            }
+        }
+    }
+
+    private void expire() {
+        if (state.compareAndSet(ARMED, FLUSHING)) {
+            flush();
+        }
+    }
+
+    /**
+     * 调度模式: 保存一批数据, 队列中还有剩余时重新调度, 让共享线程在各个工人之间轮转
+     */
+    private void flush() {
+        try {
+            int limit = getBatchSize();
+            List<Cargo<T, R>> items = new ArrayList<>(limit);
+            if (queue.drainTo(items, limit) > 0) {
+                release(items.size());
+                save(items);
+            }
+        } finally {
+            state.set(IDLE);
+            if (running && !queue.isEmpty()) {
+                signal();
+            }
+        }
+    }
+
+    /**
+     * 调度模式下的停机: 等待正在进行的刷新结束, 然后在当前线程保存剩余数据
+     */
+    void drainScheduled() {
+        while (!state.compareAndSet(IDLE, FLUSHING) && !state.compareAndSet(ARMED, FLUSHING)) {
+            if (System.nanoTime() - shutdownDeadline >= 0) {
+                return;
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        drain();
+    }
+
+    /**
+     * 通知工人停止, 工人会在 deadline 之前尽量保存完队列中的数据
+     *
+     * @param deadline 截止时间, 基于 {@link System#nanoTime()}
+     */
+    public void shutdown(long deadline) {
+        this.shutdownDeadline = deadline;
+        this.running = false;
+    }
+
+    private void drain() {
+        while (System.nanoTime() - shutdownDeadline < 0) {
+            int limit = getBatchSize();
+            List<Cargo<T, R>> items = new ArrayList<>(limit);
+            if (queue.drainTo(items, limit) == 0) {
+                return;
+            }
+            release(items.size());
             save(items);
-        } while (true);
+        }
+    }
+
+    /**
+     * 以失败结束队列中剩余的数据, 以及流水线模式下还未开始保存的批次;
+     * 启用日志时已经确认落盘的数据保留在日志中, 下次启动时重放, 其余的标记为丢弃
+     *
+     * @return 数量
+     */
+    public int abandon() {
+        // shutdown 之后登记的提交都会被拒绝, 等已经登记的提交入队完毕
+        while (submitting.get() > 0) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        int count = 0;
+        BatchRejectedException exception = new BatchRejectedException(
+                BatchRejectedException.Reason.SHUTDOWN, "Worker stopped before the item was saved");
+        for (Cargo<T, R> item = queue.poll(); item != null; item = queue.poll()) {
+            release(1);
+            item.getHearthstone().completeExceptionally(exception);
+            unsaved(item);
+            item.settled();
+            count++;
+        }
+        for (FlushTask task : pendingFlushes) {
+            count += task.cancel(exception);
+        }
+        return count;
     }
 
     private void save(List<Cargo<T, R>> items) {
+        List<Cargo<T, R>> batch;
+        try {
+            batch = prepare(items);
+        } catch (RuntimeException e) {
+            abort(items, e);
+            return;
+        }
+        write(items, batch);
+    }
+
+    /**
+     * 准备交给 saver 的数据, 流水线模式下在上一批保存期间进行
+     */
+    private List<Cargo<T, R>> prepare(List<Cargo<T, R>> items) {
+        return coalesceKey != null ? coalesce(items) : items;
+    }
+
+    /**
+     * 保存一批数据
+     *
+     * @param items 从队列中取出的数据
+     * @param batch 交给 saver 的数据
+     */
+    private void write(List<Cargo<T, R>> items, List<Cargo<T, R>> batch) {
+        try {
+            if (journal != null) {
+                journal.sync();
+            }
+            long start = System.nanoTime();
+            try {
+                saver.accept(batch);
+                if (sizeController != null) {
+                    sizeController.record(items.size(), batch.size(), System.nanoTime() - start, false);
+                }
+            } catch (Exception e) {
+                log.error(e.getMessage(), e);
+                metrics.recordFailure(e);
+                if (sizeController != null) {
+                    sizeController.record(items.size(), batch.size(), System.nanoTime() - start, true);
+                }
+                if (bisectDepth > 0 && batch.size() > 1) {
+                    bisect(batch, 1, new int[]{bisectRetries}, e);
+                } else {
+                    fail(batch, e);
+                }
+            }
+            metrics.recordFlush(items, start, System.nanoTime());
+            if (journal != null) {
+                checkpoint(items);
+            }
+        } catch (RuntimeException e) {
+            abort(items, e);
+            return;
+        }
+        items.forEach(Cargo::settled);
+    }
+
+    /**
+     * 准备、日志或者指标出错时, 以该异常结束本批中还未完成的数据, 工人继续处理后面的批次
+     */
+    private void abort(List<Cargo<T, R>> items, RuntimeException e) {
+        log.error("Failed to process a batch of {} item(s): {}", items.size(), e.getMessage(), e);
+        failAll(items, e);
+    }
+
+    private void failAll(List<Cargo<T, R>> items, RuntimeException e) {
+        for (Cargo<T, R> item : items) {
+            item.getHearthstone().completeExceptionally(e);
+            if (item.getHearthstone().isCompletedExceptionally()) {
+                unsaved(item);
+            }
+            item.settled();
+        }
+    }
+
+    /**
+     * 把检查点推进到本批之后; 已经确认落盘但保存失败的数据保留在日志中, 检查点停在它们之前, 下次启动时重放
+     */
+    private void checkpoint(List<Cargo<T, R>> items) {
+        int retained = 0;
+        for (Cargo<T, R> item : items) {
+            if (item.getHearthstone().isCompletedExceptionally()) {
+                unsaved(item);
+                retained += item.isDurable() ? 1 : 0;
+            }
+        }
+        if (retained > 0) {
+            log.warn("Kept {} failed item(s) in the journal, they will be replayed on restart", retained);
+        }
+        journal.checkpoint(items.get(items.size() - 1).getSequence());
+    }
+
+    /**
+     * 合并本批中 key 相同的数据, 每个 key 只保留第一次出现的位置, 内容由 coalesceMerge 依次合并;
+     * 重复数据的 future 跟随保留下来的数据一起完成
+     *
+     * @return 交给 saver 的数据
+     */
+    private List<Cargo<T, R>> coalesce(List<Cargo<T, R>> items) {
+        Map<Object, Integer> positions = new HashMap<>(items.size() * 2);
+        Map<Integer, List<Cargo<T, R>>> duplicates = null;
+        List<Cargo<T, R>> batch = new ArrayList<>(items.size());
+        for (Cargo<T, R> item : items) {
+            Object key = coalesceKey.apply(item.getContent());
+            Integer position = key == null ? null : positions.putIfAbsent(key, batch.size());
+            if (position == null) {
+                batch.add(item);
+                continue;
+            }
+            if (duplicates == null) {
+                duplicates = new HashMap<>();
+            }
+            duplicates.computeIfAbsent(position, k -> new ArrayList<>()).add(item);
+        }
+        if (duplicates == null) {
+            return items;
+        }
+        for (Map.Entry<Integer, List<Cargo<T, R>>> entry : duplicates.entrySet()) {
+            Cargo<T, R> first = batch.get(entry.getKey());
+            List<Cargo<T, R>> followers = entry.getValue();
+            T merged = first.getContent();
+            for (Cargo<T, R> duplicate : followers) {
+                merged = coalesceMerge.apply(merged, duplicate.getContent());
+            }
+            Cargo<T, R> representative = first;
+            if (merged != first.getContent()) {
+                representative = Cargo.of(merged);
+                representative.setSequence(first.getSequence());
+                followers.add(first);
+                batch.set(entry.getKey(), representative);
+            }
+            follow(representative, followers);
+            coalescedCount.add(entry.getValue().size() - (representative == first ? 0 : 1));
+        }
+        return batch;
+    }
+
+    private static <T, R> void follow(Cargo<T, R> representative, List<Cargo<T, R>> followers) {
+        representative.getHearthstone().whenComplete((result, e) -> {
+            for (Cargo<T, R> follower : followers) {
+                if (e == null) {
+                    follower.getHearthstone().complete(result);
+                } else {
+                    follower.getHearthstone().completeExceptionally(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * 把失败的批次拆成两半分别重试
+     *
+     * @param items  失败的批次
+     * @param depth  当前拆分深度
+     * @param budget 剩余的重试次数
+     * @param cause  失败原因, 重试次数用完时使用
+     */
+    private void bisect(List<Cargo<T, R>> items, int depth, int[] budget, Exception cause) {
+        int middle = items.size() >>> 1;
+        retry(items.subList(0, middle), depth, budget, cause);
+        retry(items.subList(middle, items.size()), depth, budget, cause);
+    }
+
+    private void retry(List<Cargo<T, R>> items, int depth, int[] budget, Exception cause) {
+        if (budget[0] <= 0) {
+            fail(items, cause);
+            return;
+        }
+        budget[0]--;
         try {
-            saver.accept(items);
+            saver.accept(new ArrayList<>(items));
+            metrics.recordRetry(false);
         } catch (Exception e) {
-            log.error(e.getMessage(), e);
-            items.forEach(item -> item.getHearthstone().obtrudeException(e));
+            metrics.recordRetry(true);
+            if (items.size() > 1 && depth < bisectDepth) {
+                bisect(items, depth + 1, budget, e);
+            } else {
+                log.warn("Isolated {} failing item(s): {}", items.size(), e.getMessage());
+                fail(items, e);
+            }
         }
     }
+
+    private void fail(List<Cargo<T, R>> items, Exception e) {
+        items.forEach(item -> item.getHearthstone().obtrudeException(e));
+    }
 }
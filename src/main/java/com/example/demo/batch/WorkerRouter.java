@@ -0,0 +1,64 @@
+package com.example.demo.batch;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * 工人路由策略, 决定一条数据交给哪个工人处理
+ *
+ * @param <T> 类型
+ * @author limaofeng
+ */
+@FunctionalInterface
+public interface WorkerRouter<T> {
+
+  /**
+   * 轮询, 所有提交线程共用一个计数器
+   *
+   * @param <T> 类型
+   * @return WorkerRouter
+   */
+  static <T> WorkerRouter<T> roundRobin() {
+    return new RoundRobinRouter<>();
+  }
+
+  /**
+   * 随机挑选两个工人, 交给队列较短的一个, 避免持续向卡在慢提交上的工人派发
+   *
+   * @param <T> 类型
+   * @return WorkerRouter
+   */
+  static <T> WorkerRouter<T> powerOfTwoChoices() {
+    return new PowerOfTwoChoicesRouter<>();
+  }
+
+  /**
+   * 每个线程各自轮询, 没有共享计数器
+   *
+   * @param <T> 类型
+   * @return WorkerRouter
+   */
+  static <T> WorkerRouter<T> threadLocalStriping() {
+    return new StripedRouter<>();
+  }
+
+  /**
+   * 按 key 的哈希选择工人, 相同 key 的数据总是由同一个工人按提交顺序处理
+   *
+   * @param keyExtractor 提取 key 的方法, 如 User::getUsername
+   * @param <T> 类型
+   * @return WorkerRouter
+   */
+  static <T> WorkerRouter<T> keyAffinity(Function<? super T, ?> keyExtractor) {
+    return new KeyAffinityRouter<>(keyExtractor);
+  }
+
+  /**
+   * 选择工人
+   *
+   * @param entity 提交的数据
+   * @param workers 工人列表, 不为空
+   * @return 工人在列表中的下标
+   */
+  int route(T entity, List<? extends Worker<T, ?>> workers);
+}
@@ -0,0 +1,95 @@
+package com.example.demo.config;
+
+import com.example.demo.batch.BatchOptions;
+import com.example.demo.batch.BatchService;
+import com.example.demo.batch.Cargo;
+import com.example.demo.batch.JournalCodec;
+import com.example.demo.batch.OverflowPolicy;
+import com.example.demo.batch.WorkerRouter;
+import com.example.demo.domain.User;
+import com.example.demo.service.UserService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 批量提交服务配置
+ * <p>
+ * 以 Bean 的形式注册, 由容器负责启动和优雅停机
+ *
+ * @author limaofeng
+ */
+@Configuration
+public class BatchConfiguration {
+
+    @Bean
+    public BatchService<User, User> userBatchService(UserService userService,
+                                                     MeterRegistry meterRegistry,
+                                                     ObjectMapper objectMapper,
+                                                     @Value("${demo.user.journal.directory:}") String journalDirectory,
+                                                     @Value("${demo.user.coalesce-by-username:false}") boolean coalesceByUsername,
+                                                     @Value("${demo.user.batch.target-flush-latency:0ms}") Duration targetFlushLatency,
+                                                     @Value("${demo.user.batch.min-size:50}") int minBatchSize,
+                                                     @Value("${demo.user.batch.max-size:2000}") int maxBatchSize,
+                                                     @Value("${demo.user.batch.max-in-flight:1}") int maxInFlight,
+                                                     @Value("${demo.user.batch.ordered:true}") boolean ordered) {
+        BatchOptions.BatchOptionsBuilder<User, User> options = BatchOptions.<User, User>builder()
+                .name("user")
+                .batchSize(500)
+                .works(8)
+                .router(WorkerRouter.powerOfTwoChoices())
+                .capacity(10000)
+                .overflowPolicy(OverflowPolicy.BLOCK)
+                .offerTimeout(200, TimeUnit.MILLISECONDS)
+                .bisectDepth(9)
+                .bisectRetries(32)
+                .pipelined(maxInFlight, ordered)
+                .shutdownTimeout(30, TimeUnit.SECONDS)
+                .meterRegistry(meterRegistry);
+        if (!targetFlushLatency.isZero()) {
+            options.adaptive(minBatchSize, maxBatchSize, targetFlushLatency.toNanos(), TimeUnit.NANOSECONDS);
+        }
+        if (coalesceByUsername) {
+            options.coalesce(User::getUsername);
+        }
+        if (!journalDirectory.isEmpty()) {
+            options.journalDirectory(Paths.get(journalDirectory, "user"))
+                    .journalCodec(JournalCodec.json(objectMapper, User.class));
+        }
+        Consumer<List<Cargo<User, User>>> saver = userService.isSharded() ? userService::saveAllSharded : userService::saveAll;
+        return BatchService.create(saver, options.build());
+    }
+
+    /**
+     * 用户的批量更新: 按 id 路由到固定的工人并按顺序保存, 同一批中相同 id 的修改只保留最新的一次
+     */
+    @Bean
+    public BatchService<User, User> userUpsertService(UserService userService,
+                                                      MeterRegistry meterRegistry,
+                                                      @Value("${demo.user.upsert.linger:10ms}") Duration linger) {
+        Consumer<List<Cargo<User, User>>> saver = userService.isSharded() ? userService::upsertAllSharded : userService::upsertAll;
+        return BatchService.create(saver, BatchOptions.<User, User>builder()
+                .name("user-upsert")
+                .batchSize(500)
+                .works(4)
+                .router(WorkerRouter.keyAffinity(User::getId))
+                .capacity(10000)
+                .overflowPolicy(OverflowPolicy.BLOCK)
+                .offerTimeout(200, TimeUnit.MILLISECONDS)
+                .linger(linger.toNanos(), TimeUnit.NANOSECONDS)
+                .coalesce(User::getId, (older, newer) -> newer)
+                .bisectDepth(9)
+                .shutdownTimeout(30, TimeUnit.SECONDS)
+                .meterRegistry(meterRegistry)
+                .build());
+    }
+
+}
@@ -0,0 +1,47 @@
+package com.example.demo.config;
+
+import com.example.demo.id.IdLeaseHolder;
+import com.example.demo.id.SnowflakeIdGenerator;
+import com.example.demo.id.WorkerIdLease;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Duration;
+
+/**
+ * id 生成器配置
+ * <p>
+ * 配置了 demo.id.worker-id 时直接使用, 否则从 demo.id.lease-directory 中租用一个空闲的工作机器 id,
+ * 并在租约文件中每次预留 demo.id.reserve-ahead 的时间戳。租约目录默认在 ${user.home}/.demo/id, 必须在重启后保留
+ *
+ * @author limaofeng
+ */
+@Slf4j
+@Configuration
+public class IdConfiguration {
+
+    @Bean(destroyMethod = "close")
+    public IdLeaseHolder idLeaseHolder(@Value("${demo.id.datacenter-id:1}") long datacenterId,
+                                       @Value("${demo.id.worker-id:-1}") long workerId,
+                                       @Value("${demo.id.lease-directory:${user.home}/.demo/id}") String leaseDirectory)
+            throws IOException {
+        if (workerId >= 0) {
+            return new IdLeaseHolder(datacenterId, workerId, null);
+        }
+        return new IdLeaseHolder(datacenterId, -1, WorkerIdLease.acquire(Paths.get(leaseDirectory), datacenterId));
+    }
+
+    @Bean
+    public SnowflakeIdGenerator snowflakeIdGenerator(IdLeaseHolder holder,
+                                                     @Value("${demo.id.max-lead:5s}") Duration maxLead,
+                                                     @Value("${demo.id.reserve-ahead:1s}") Duration reserveAhead) {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(holder.getDatacenterId(), holder.getWorkerId(),
+                maxLead.toMillis(), holder.getLastTimestamp(), holder.getTimestampStore(), reserveAhead.toMillis());
+        log.info("Snowflake ids use datacenter {} worker {}", holder.getDatacenterId(), holder.getWorkerId());
+        return generator;
+    }
+}
@@ -1,14 +1,51 @@
 package com.example.demo.dao;
 
 import com.example.demo.domain.User;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
 
 @Repository
 public interface UserDao extends JpaRepository<User, Long> {
 
     void saveInBatch(List<User> entities);
 
+    /**
+     * 按 id 批量插入或更新, 每块数据一条语句 (MySQL 为 INSERT ... ON DUPLICATE KEY UPDATE, H2 为 MERGE),
+     * 已存在的行保留原来的创建时间
+     * <p>
+     * 写入后把数据库中的创建时间回填到 entities, 使其与最终状态一致。同一批中的 id 不能重复
+     *
+     * @param entities 数据, id 不能为空
+     */
+    void upsertInBatch(List<User> entities);
+
+    /**
+     * 按主键顺序查询 id 之后的数据, 走主键索引的范围扫描, 不做 COUNT 查询
+     *
+     * @param id   上一页最后一条数据的 id
+     * @param size 条数
+     * @return Slice
+     */
+    Slice<User> findAfter(long id, int size);
+
+    /**
+     * 按用户名查询, 存在重名时返回 id 最小的一条
+     *
+     * @param username 用户名
+     * @return Optional
+     */
+    Optional<User> findByUsername(String username);
+
+    /**
+     * 按主键顺序逐行读取全表, 通过只读、只进的游标分批从数据库取数, 内存占用与表大小无关
+     *
+     * @param consumer 每读到一行调用一次
+     */
+    void forEach(Consumer<User> consumer);
+
 }
\ No newline at end of file
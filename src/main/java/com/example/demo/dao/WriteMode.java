@@ -0,0 +1,17 @@
+package com.example.demo.dao;
+
+/**
+ * 批量写入方式
+ *
+ * @author limaofeng
+ */
+public enum WriteMode {
+    /**
+     * 通过 EntityManager.persist 逐条写入, 由 Hibernate 合并为 JDBC batch
+     */
+    JPA,
+    /**
+     * 绕过 EntityManager, 每个分块拼成一条多行 INSERT 语句, 直接通过 JdbcTemplate 执行
+     */
+    JDBC
+}
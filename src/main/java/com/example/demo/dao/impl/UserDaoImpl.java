@@ -1,31 +1,51 @@
 package com.example.demo.dao.impl;
 
-import cn.hutool.core.lang.Snowflake;
-import cn.hutool.core.util.IdUtil;
 import com.example.demo.dao.UserDao;
+import com.example.demo.dao.WriteMode;
 import com.example.demo.domain.User;
+import com.example.demo.id.SnowflakeIdGenerator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
 import org.springframework.data.jpa.repository.support.JpaEntityInformationSupport;
 import org.springframework.data.jpa.repository.support.SimpleJpaRepository;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.util.Assert;
 
 import javax.persistence.EntityManager;
 import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
 
 public class UserDaoImpl extends SimpleJpaRepository<User, Long> implements UserDao {
 
     private final EntityManager em;
-    private final Snowflake snowflake = IdUtil.getSnowflake(1, 1);
+    private final UserJdbcOperations jdbc;
+    private final SnowflakeIdGenerator idGenerator;
+    private final WriteMode writeMode;
+    private final int exportFetchSize;
 
-    public UserDaoImpl(EntityManager entityManager) {
+    public UserDaoImpl(EntityManager entityManager,
+                       JdbcTemplate jdbcTemplate,
+                       SnowflakeIdGenerator idGenerator,
+                       @Value("${demo.user.write-mode:JPA}") WriteMode writeMode,
+                       @Value("${demo.user.insert-chunk-size:500}") int insertChunkSize,
+                       @Value("${demo.user.export-fetch-size:1000}") int exportFetchSize) {
         super(JpaEntityInformationSupport.getEntityInformation(User.class, entityManager), entityManager);
+        Assert.isTrue(insertChunkSize > 0, "insert-chunk-size must be positive");
         this.em = entityManager;
+        this.jdbc = new UserJdbcOperations(jdbcTemplate, insertChunkSize);
+        this.idGenerator = idGenerator;
+        this.writeMode = writeMode;
+        this.exportFetchSize = exportFetchSize;
     }
 
     @Override
     public <S extends User> S save(S entity) {
         Assert.notNull(entity, "Entity must not be null.");
         if (entity.getId() == null) {
-            entity.setId(snowflake.nextId());
+            entity.setId(idGenerator.nextId());
         }
         return super.save(entity);
     }
@@ -34,10 +54,50 @@ public class UserDaoImpl extends SimpleJpaRepository<User, Long> implements User
         if (entities == null) {
             throw new IllegalArgumentException("The given Iterable of entities cannot be null!");
         }
-        entities.forEach(item -> item.setId(snowflake.nextId()));
+        // 整批一次预留连续的 id, 不与其他工人竞争
+        long[] ids = idGenerator.nextIds(entities.size());
+        for (int i = 0; i < ids.length; i++) {
+            entities.get(i).setId(ids[i]);
+        }
+        if (writeMode == WriteMode.JDBC) {
+            jdbc.insert(entities);
+            return;
+        }
         for (User entity : entities) {
             this.em.persist(entity);
         }
     }
 
+    @Override
+    public void upsertInBatch(List<User> entities) {
+        if (entities == null) {
+            throw new IllegalArgumentException("The given Iterable of entities cannot be null!");
+        }
+        jdbc.upsert(entities);
+    }
+
+    @Override
+    public Slice<User> findAfter(long id, int size) {
+        List<User> users = this.em.createQuery("select u from User u where u.id > :id order by u.id", User.class)
+                .setParameter("id", id)
+                .setMaxResults(size + 1)
+                .getResultList();
+        boolean hasNext = users.size() > size;
+        return new SliceImpl<>(hasNext ? users.subList(0, size) : users, PageRequest.ofSize(size), hasNext);
+    }
+
+    @Override
+    public Optional<User> findByUsername(String username) {
+        return this.em.createQuery("select u from User u where u.username = :username order by u.id", User.class)
+                .setParameter("username", username)
+                .setMaxResults(1)
+                .getResultStream()
+                .findFirst();
+    }
+
+    @Override
+    public void forEach(Consumer<User> consumer) {
+        jdbc.forEach(consumer, exportFetchSize);
+    }
+
 }
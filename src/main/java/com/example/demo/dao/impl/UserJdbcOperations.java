@@ -0,0 +1,232 @@
+package com.example.demo.dao.impl;
+
+import com.example.demo.domain.User;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.util.Assert;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * DEMO_USER 表的 JDBC 操作, 不经过 JPA
+ * <p>
+ * 多行 INSERT / upsert 语句按行数缓存, 数据按 chunkSize 分块, 每块一条语句。
+ * 单库时由 {@link UserDaoImpl} 使用, 分库时每个分片各有一个实例
+ *
+ * @author limaofeng
+ */
+public class UserJdbcOperations {
+
+    private static final String COLUMNS = "ID, NICKNAME, USERNAME, PASSWORD, CREATED_AT, UPDATED_AT";
+    private static final String INSERT_PREFIX = "INSERT INTO DEMO_USER (" + COLUMNS + ") VALUES ";
+    private static final String INSERT_ROW = "(?, ?, ?, ?, ?, ?)";
+    private static final String UPSERT_SUFFIX = " ON DUPLICATE KEY UPDATE NICKNAME = VALUES(NICKNAME), USERNAME = VALUES(USERNAME), PASSWORD = VALUES(PASSWORD), UPDATED_AT = VALUES(UPDATED_AT)";
+    private static final String MERGE_PREFIX = "MERGE INTO DEMO_USER T USING (VALUES ";
+    private static final String MERGE_SUFFIX = ") S (" + COLUMNS + ") ON T.ID = S.ID"
+            + " WHEN MATCHED THEN UPDATE SET NICKNAME = S.NICKNAME, USERNAME = S.USERNAME, PASSWORD = S.PASSWORD, UPDATED_AT = S.UPDATED_AT"
+            + " WHEN NOT MATCHED THEN INSERT (" + COLUMNS + ")"
+            + " VALUES (S.ID, S.NICKNAME, S.USERNAME, S.PASSWORD, S.CREATED_AT, S.UPDATED_AT)";
+    private static final String SELECT_CREATED_AT = "SELECT ID, CREATED_AT FROM DEMO_USER WHERE ID IN (";
+    private static final String SELECT = "SELECT " + COLUMNS + " FROM DEMO_USER";
+    private static final String SELECT_ALL = SELECT + " ORDER BY ID";
+    private static final String SELECT_BY_ID = SELECT + " WHERE ID = ?";
+    private static final String SELECT_BY_USERNAME = SELECT + " WHERE USERNAME = ? ORDER BY ID LIMIT 1";
+    private static final String SELECT_AFTER = SELECT + " WHERE ID > ? ORDER BY ID LIMIT ?";
+    private static final String COUNT = "SELECT COUNT(*) FROM DEMO_USER";
+
+    private static final RowMapper<User> ROW_MAPPER = (rs, rowNum) -> map(rs);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final int chunkSize;
+    /**
+     * 按行数缓存的多行 INSERT 语句
+     */
+    private final Map<Integer, String> insertSqls = new ConcurrentHashMap<>();
+    /**
+     * 按行数缓存的 upsert 语句
+     */
+    private final Map<Integer, String> upsertSqls = new ConcurrentHashMap<>();
+    /**
+     * 数据库是否为 MySQL, 首次 upsert 时从连接元数据中读取
+     */
+    private volatile Boolean mysql;
+
+    public UserJdbcOperations(JdbcTemplate jdbcTemplate, int chunkSize) {
+        Assert.isTrue(chunkSize > 0, "chunkSize must be positive");
+        this.jdbcTemplate = jdbcTemplate;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * 用多行 INSERT 语句写入, id 必须已经分配
+     *
+     * @param entities 数据
+     */
+    public void insert(List<User> entities) {
+        for (int from = 0; from < entities.size(); from += chunkSize) {
+            List<User> rows = entities.subList(from, Math.min(from + chunkSize, entities.size()));
+            String sql = insertSqls.computeIfAbsent(rows.size(), UserJdbcOperations::buildInsertSql);
+            jdbcTemplate.update(sql, ps -> bind(ps, rows));
+        }
+    }
+
+    /**
+     * 按 id 插入或更新, 已存在的行保留原来的创建时间, 写入后把数据库中的创建时间回填到 entities
+     *
+     * @param entities 数据, id 不能为空且不能重复
+     */
+    public void upsert(List<User> entities) {
+        for (int from = 0; from < entities.size(); from += chunkSize) {
+            List<User> rows = entities.subList(from, Math.min(from + chunkSize, entities.size()));
+            for (User user : rows) {
+                Assert.notNull(user.getId(), "Upserted entity must have an id");
+            }
+            String sql = upsertSqls.computeIfAbsent(rows.size(),
+                    isMysql() ? UserJdbcOperations::buildUpsertSql : UserJdbcOperations::buildMergeSql);
+            jdbcTemplate.update(sql, ps -> bind(ps, rows));
+            loadCreatedAt(rows);
+        }
+    }
+
+    public Optional<User> findById(long id) {
+        return jdbcTemplate.query(SELECT_BY_ID, ROW_MAPPER, id).stream().findFirst();
+    }
+
+    /**
+     * 按用户名查询, 存在重名时返回 id 最小的一条
+     */
+    public Optional<User> findByUsername(String username) {
+        return jdbcTemplate.query(SELECT_BY_USERNAME, ROW_MAPPER, username).stream().findFirst();
+    }
+
+    /**
+     * 按主键顺序查询 id 之后的数据
+     *
+     * @param id    起始 id (不含)
+     * @param limit 最多条数
+     * @return 数据
+     */
+    public List<User> findAfter(long id, int limit) {
+        return jdbcTemplate.query(SELECT_AFTER, ROW_MAPPER, id, limit);
+    }
+
+    public long count() {
+        Long count = jdbcTemplate.queryForObject(COUNT, Long.class);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * 按主键顺序逐行读取全表, 使用只读、只进的游标
+     *
+     * @param consumer  每读到一行调用一次
+     * @param fetchSize 每次从数据库取的行数
+     */
+    public void forEach(Consumer<User> consumer, int fetchSize) {
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(SELECT_ALL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(fetchSize);
+            return ps;
+        }, rs -> {
+            consumer.accept(map(rs));
+        });
+    }
+
+    /**
+     * 已存在的行不更新创建时间, 写入后读回
+     */
+    private void loadCreatedAt(List<User> rows) {
+        Map<Long, User> byId = new HashMap<>(rows.size() * 2);
+        StringBuilder sql = new StringBuilder(SELECT_CREATED_AT.length() + rows.size() * 2);
+        sql.append(SELECT_CREATED_AT);
+        for (User user : rows) {
+            if (!byId.isEmpty()) {
+                sql.append(',');
+            }
+            sql.append('?');
+            byId.put(user.getId(), user);
+        }
+        sql.append(')');
+        jdbcTemplate.query(sql.toString(), ps -> {
+            int index = 1;
+            for (User user : rows) {
+                ps.setLong(index++, user.getId());
+            }
+        }, rs -> {
+            byId.get(rs.getLong(1)).setCreatedAt(rs.getTimestamp(2));
+        });
+    }
+
+    private boolean isMysql() {
+        Boolean result = mysql;
+        if (result == null) {
+            String product = jdbcTemplate.execute((ConnectionCallback<String>) con -> con.getMetaData().getDatabaseProductName());
+            result = mysql = product != null && product.toLowerCase().contains("mysql");
+        }
+        return result;
+    }
+
+    private static String buildInsertSql(int rows) {
+        StringBuilder sql = new StringBuilder(INSERT_PREFIX.length() + rows * (INSERT_ROW.length() + 1));
+        sql.append(INSERT_PREFIX);
+        appendRows(sql, rows);
+        return sql.toString();
+    }
+
+    private static String buildUpsertSql(int rows) {
+        return buildInsertSql(rows) + UPSERT_SUFFIX;
+    }
+
+    private static String buildMergeSql(int rows) {
+        StringBuilder sql = new StringBuilder(MERGE_PREFIX.length() + rows * (INSERT_ROW.length() + 1) + MERGE_SUFFIX.length());
+        sql.append(MERGE_PREFIX);
+        appendRows(sql, rows);
+        return sql.append(MERGE_SUFFIX).toString();
+    }
+
+    private static void appendRows(StringBuilder sql, int rows) {
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) {
+                sql.append(',');
+            }
+            sql.append(INSERT_ROW);
+        }
+    }
+
+    private static void bind(PreparedStatement ps, List<User> rows) throws SQLException {
+        int index = 1;
+        for (User user : rows) {
+            ps.setLong(index++, user.getId());
+            ps.setString(index++, user.getNickname());
+            ps.setString(index++, user.getUsername());
+            ps.setString(index++, user.getPassword());
+            ps.setTimestamp(index++, toTimestamp(user.getCreatedAt()));
+            ps.setTimestamp(index++, toTimestamp(user.getUpdatedAt()));
+        }
+    }
+
+    private static Timestamp toTimestamp(Date date) {
+        return date == null ? null : new Timestamp(date.getTime());
+    }
+
+    private static User map(ResultSet rs) throws SQLException {
+        return User.builder()
+                .id(rs.getLong(1))
+                .nickname(rs.getString(2))
+                .username(rs.getString(3))
+                .password(rs.getString(4))
+                .createdAt(rs.getTimestamp(5))
+                .updatedAt(rs.getTimestamp(6))
+                .build();
+    }
+}
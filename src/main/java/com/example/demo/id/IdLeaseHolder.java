@@ -0,0 +1,46 @@
+package com.example.demo.id;
+
+import java.io.IOException;
+
+/**
+ * id 生成器所在的节点, 持有租约时由租约文件保存预留的时间戳上限, 停机时释放租约
+ *
+ * @author limaofeng
+ */
+public class IdLeaseHolder {
+
+    private final long datacenterId;
+    private final long workerId;
+    private final WorkerIdLease lease;
+
+    public IdLeaseHolder(long datacenterId, long workerId, WorkerIdLease lease) {
+        this.datacenterId = datacenterId;
+        this.workerId = lease != null ? lease.getWorkerId() : workerId;
+        this.lease = lease;
+    }
+
+    public long getDatacenterId() {
+        return datacenterId;
+    }
+
+    public long getWorkerId() {
+        return workerId;
+    }
+
+    public long getLastTimestamp() {
+        return lease != null ? lease.getLastTimestamp() : 0;
+    }
+
+    /**
+     * @return 保存时间戳上限的租约, 直接配置工作机器 id 时为空
+     */
+    public TimestampStore getTimestampStore() {
+        return lease;
+    }
+
+    public void close() throws IOException {
+        if (lease != null) {
+            lease.close();
+        }
+    }
+}
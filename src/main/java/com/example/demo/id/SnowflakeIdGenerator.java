@@ -0,0 +1,176 @@
+package com.example.demo.id;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+/**
+ * 无锁的雪花算法 id 生成器
+ * <p>
+ * id 的布局与 hutool 的 Snowflake 一致: 41 位时间戳 (毫秒, 起点相同)、5 位数据中心 id、5 位工作机器 id、12 位序列号,
+ * 与已有数据的 id 保持递增。
+ * <p>
+ * 时间戳和序列号合在一起作为一个逻辑时钟 (毫秒 &lt;&lt; 12 | 序列号), 保存在一个 {@link AtomicLong} 中,
+ * 一次 CAS 即可预留任意数量的连续 id。同一毫秒内的序列号用完时逻辑时钟借用下一毫秒;
+ * 系统时钟回拨时逻辑时钟不回退, 继续在上一次的时间上递增, 所以回拨期间的 id 仍然唯一且递增。
+ * 逻辑时钟领先系统时钟超过 maxLead 时, 调用方等待系统时钟追上, 避免重启后与之前的 id 重复
+ * <p>
+ * 配置了 {@link TimestampStore} 时, 分配的 id 不会超过已经落盘的时间戳上限: 逻辑时钟到达上限前先把上限推后 reserveMillis
+ * 并落盘, 每 reserveMillis 最多写一次。进程崩溃后即使系统时钟回拨, 下次启动也从落盘的上限之后开始, 不会重复
+ *
+ * @author limaofeng
+ */
+@Slf4j
+public class SnowflakeIdGenerator {
+
+    /**
+     * 与 hutool Snowflake 相同的时间起点
+     */
+    public static final long EPOCH = 1288834974657L;
+
+    private static final int SEQUENCE_BITS = 12;
+    private static final int WORKER_BITS = 5;
+    private static final int DATACENTER_BITS = 5;
+    public static final long MAX_WORKER_ID = ~(-1L << WORKER_BITS);
+    public static final long MAX_DATACENTER_ID = ~(-1L << DATACENTER_BITS);
+    private static final long SEQUENCE_MASK = ~(-1L << SEQUENCE_BITS);
+    private static final int TIMESTAMP_SHIFT = SEQUENCE_BITS + WORKER_BITS + DATACENTER_BITS;
+
+    private final long node;
+    private final long maxLeadMillis;
+    private final LongSupplier clock;
+    private final TimestampStore store;
+    private final long reserveMillis;
+    /**
+     * 已落盘的时间戳上限, 没有 store 时为 Long.MAX_VALUE
+     */
+    private volatile long ceiling;
+    /**
+     * 逻辑时钟: 最后一个已分配 id 的 (毫秒 &lt;&lt; 12 | 序列号)
+     */
+    private final AtomicLong state;
+
+    public SnowflakeIdGenerator(long datacenterId, long workerId, long maxLeadMillis, long minTimestamp) {
+        this(datacenterId, workerId, maxLeadMillis, minTimestamp, null, 0, System::currentTimeMillis);
+    }
+
+    /**
+     * @param minTimestamp  上次落盘的时间戳上限, 从它之后开始分配
+     * @param store         保存时间戳上限, 为空时不预留
+     * @param reserveMillis 每次预留的时长, 不能超过 maxLeadMillis, 否则重启后要等系统时钟追上
+     */
+    public SnowflakeIdGenerator(long datacenterId, long workerId, long maxLeadMillis, long minTimestamp,
+                                TimestampStore store, long reserveMillis) {
+        this(datacenterId, workerId, maxLeadMillis, minTimestamp, store, reserveMillis, System::currentTimeMillis);
+    }
+
+    SnowflakeIdGenerator(long datacenterId, long workerId, long maxLeadMillis, long minTimestamp, LongSupplier clock) {
+        this(datacenterId, workerId, maxLeadMillis, minTimestamp, null, 0, clock);
+    }
+
+    SnowflakeIdGenerator(long datacenterId, long workerId, long maxLeadMillis, long minTimestamp,
+                         TimestampStore store, long reserveMillis, LongSupplier clock) {
+        if (datacenterId < 0 || datacenterId > MAX_DATACENTER_ID) {
+            throw new IllegalArgumentException("datacenterId must be between 0 and " + MAX_DATACENTER_ID);
+        }
+        if (workerId < 0 || workerId > MAX_WORKER_ID) {
+            throw new IllegalArgumentException("workerId must be between 0 and " + MAX_WORKER_ID);
+        }
+        if (store != null && (reserveMillis <= 0 || reserveMillis > maxLeadMillis)) {
+            throw new IllegalArgumentException("reserveMillis must be between 1 and maxLeadMillis (" + maxLeadMillis + ")");
+        }
+        this.node = (datacenterId << (SEQUENCE_BITS + WORKER_BITS)) | (workerId << SEQUENCE_BITS);
+        this.maxLeadMillis = maxLeadMillis;
+        this.clock = clock;
+        this.store = store;
+        this.reserveMillis = reserveMillis;
+        this.ceiling = store != null ? minTimestamp : Long.MAX_VALUE;
+        this.state = new AtomicLong(((minTimestamp + 1) << SEQUENCE_BITS) - 1);
+    }
+
+    public long nextId() {
+        return toId(reserve(1));
+    }
+
+    /**
+     * 一次预留 count 个连续的 id
+     *
+     * @param count 数量
+     * @return id, 按生成顺序递增
+     */
+    public long[] nextIds(int count) {
+        long[] ids = new long[count];
+        if (count == 0) {
+            return ids;
+        }
+        long first = reserve(count);
+        for (int i = 0; i < count; i++) {
+            ids[i] = toId(first + i);
+        }
+        return ids;
+    }
+
+    /**
+     * 最后一个已分配 id 的时间戳
+     *
+     * @return 毫秒
+     */
+    public long getLastTimestamp() {
+        return state.get() >>> SEQUENCE_BITS;
+    }
+
+    /**
+     * @return 预留的第一个逻辑时钟值
+     */
+    private long reserve(int count) {
+        boolean warned = false;
+        for (; ; ) {
+            long now = clock.getAsLong();
+            long current = state.get();
+            long last = current >>> SEQUENCE_BITS;
+            if (last - now > maxLeadMillis) {
+                if (!warned) {
+                    log.warn("Id clock is {} ms ahead of system clock, waiting for it to catch up", last - now);
+                    warned = true;
+                }
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                continue;
+            }
+            long first = Math.max(current + 1, now << SEQUENCE_BITS);
+            long end = (first + count - 1) >>> SEQUENCE_BITS;
+            if (end > ceiling) {
+                extend(end);
+                continue;
+            }
+            if (state.compareAndSet(current, first + count - 1)) {
+                return first;
+            }
+        }
+    }
+
+    /**
+     * 把时间戳上限推后到 timestamp + reserveMillis, 落盘后才允许分配
+     */
+    private synchronized void extend(long timestamp) {
+        if (timestamp <= ceiling) {
+            return;
+        }
+        long next = timestamp + reserveMillis;
+        try {
+            store.save(next);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to reserve id timestamps up to " + next, e);
+        }
+        ceiling = next;
+    }
+
+    private long toId(long logical) {
+        long timestamp = logical >>> SEQUENCE_BITS;
+        return ((timestamp - EPOCH) << TIMESTAMP_SHIFT) | node | (logical & SEQUENCE_MASK);
+    }
+}
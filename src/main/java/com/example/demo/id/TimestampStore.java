@@ -0,0 +1,19 @@
+package com.example.demo.id;
+
+import java.io.IOException;
+
+/**
+ * 持久化 id 生成器预留的时间戳上限
+ *
+ * @author limaofeng
+ */
+public interface TimestampStore {
+
+    /**
+     * 保存时间戳上限, 返回前必须已经落盘
+     *
+     * @param timestamp 毫秒
+     * @throws IOException 写入失败
+     */
+    void save(long timestamp) throws IOException;
+}
@@ -0,0 +1,102 @@
+package com.example.demo.id;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 通过本地租约文件分配工作机器 id
+ * <p>
+ * 目录下每个工作机器 id 对应一个文件, 进程对文件加排他锁即持有该 id, 进程退出 (包括崩溃) 时锁自动释放。
+ * 同一台机器上的多个进程因此不会拿到相同的 id; 不同机器之间需要配置不同的数据中心 id, 或者共享同一个租约目录。
+ * <p>
+ * 文件中保存持有者预留的时间戳上限 (见 {@link SnowflakeIdGenerator}), 持有者只在上限之内分配 id, 崩溃时也不会超出;
+ * 新的持有者从该时间之后开始分配, 避免重启时的时钟回拨导致 id 重复。
+ * 所以租约目录必须在重启后保留, 不能放在开机时会被清空的临时目录中
+ *
+ * @author limaofeng
+ */
+@Slf4j
+public class WorkerIdLease implements TimestampStore, Closeable {
+
+    private final long workerId;
+    private final FileChannel channel;
+    private final FileLock lock;
+    private final long lastTimestamp;
+
+    private WorkerIdLease(long workerId, FileChannel channel, FileLock lock, long lastTimestamp) {
+        this.workerId = workerId;
+        this.channel = channel;
+        this.lock = lock;
+        this.lastTimestamp = lastTimestamp;
+    }
+
+    /**
+     * 获取第一个空闲的工作机器 id
+     *
+     * @param directory    租约目录
+     * @param datacenterId 数据中心 id, 不同数据中心的租约互不影响
+     * @return WorkerIdLease
+     * @throws IOException 读写租约文件失败
+     * @throws IllegalStateException 所有的工作机器 id 都已被占用
+     */
+    public static WorkerIdLease acquire(Path directory, long datacenterId) throws IOException {
+        Files.createDirectories(directory);
+        for (long workerId = 0; workerId <= SnowflakeIdGenerator.MAX_WORKER_ID; workerId++) {
+            Path file = directory.resolve("worker-" + datacenterId + "-" + workerId + ".lease");
+            FileChannel channel = FileChannel.open(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            FileLock lock;
+            try {
+                lock = channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                lock = null;
+            }
+            if (lock == null) {
+                channel.close();
+                continue;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+            long lastTimestamp = channel.read(buffer, 0) == Long.BYTES ? ((ByteBuffer) buffer.flip()).getLong() : 0;
+            log.info("Acquired id lease {} (datacenter {}, worker {})", file, datacenterId, workerId);
+            return new WorkerIdLease(workerId, channel, lock, lastTimestamp);
+        }
+        throw new IllegalStateException("No free worker id left in " + directory + " for datacenter " + datacenterId);
+    }
+
+    public long getWorkerId() {
+        return workerId;
+    }
+
+    public long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    /**
+     * 保存时间戳上限
+     *
+     * @param timestamp 毫秒
+     * @throws IOException 写入失败
+     */
+    @Override
+    public void save(long timestamp) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+        buffer.putLong(timestamp).flip();
+        channel.write(buffer, 0);
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.release();
+        channel.close();
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.demo.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 批量导入的结果汇总
+ *
+ * @author limaofeng
+ */
+@Data
+@AllArgsConstructor
+public class ImportResult {
+
+    /**
+     * 写入成功的条数
+     */
+    private long inserted;
+
+    /**
+     * 写入失败的条数
+     */
+    private long failed;
+
+    /**
+     * 请求体格式错误时的说明, 此时只处理了出错位置之前的数据
+     */
+    private String error;
+
+}
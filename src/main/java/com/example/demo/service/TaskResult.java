@@ -0,0 +1,58 @@
+package com.example.demo.service;
+
+import com.example.demo.batch.BatchRejectedException;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 推理任务的状态与结果
+ *
+ * @author limaofeng
+ */
+@Data
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TaskResult {
+
+    @JsonProperty("task_id")
+    private String taskId;
+
+    private Status status;
+
+    private Object result;
+
+    private String error;
+
+    /**
+     * 因过载或停机被拒绝时的原因, 重复请求据此返回与第一次相同的状态码
+     */
+    @JsonIgnore
+    private BatchRejectedException.Reason rejection;
+
+    public static TaskResult pending(String taskId) {
+        return new TaskResult(taskId, Status.PENDING, null, null, null);
+    }
+
+    @JsonIgnore
+    public boolean isDone() {
+        return status != Status.PENDING;
+    }
+
+    public enum Status {
+        /**
+         * 已接收, 处理中
+         */
+        PENDING,
+        /**
+         * 处理成功
+         */
+        SUCCEEDED,
+        /**
+         * 处理失败
+         */
+        FAILED
+    }
+}
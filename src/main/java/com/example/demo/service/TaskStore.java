@@ -0,0 +1,63 @@
+package com.example.demo.service;
+
+import com.example.demo.batch.BatchRejectedException;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * 推理任务结果的内存存储
+ * <p>
+ * 按条数限制大小, 写入后 ttl 过期, 客户端需要在过期前取走结果; 服务重启后结果丢失
+ *
+ * @author limaofeng
+ */
+@Component
+public class TaskStore {
+
+    private final Cache<String, TaskResult> tasks;
+
+    public TaskStore(MeterRegistry meterRegistry,
+                     @Value("${demo.infer.task.maximum-size:100000}") long maximumSize,
+                     @Value("${demo.infer.task.ttl:10m}") Duration ttl) {
+        this.tasks = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, tasks, "infer.tasks");
+    }
+
+    /**
+     * 登记一个新任务
+     *
+     * @param taskId 任务 id
+     * @return 同一 id 的任务已存在时返回已有的任务, 否则返回 null
+     */
+    public TaskResult register(String taskId) {
+        return tasks.asMap().putIfAbsent(taskId, TaskResult.pending(taskId));
+    }
+
+    public TaskResult get(String taskId) {
+        return tasks.getIfPresent(taskId);
+    }
+
+    public TaskResult succeed(String taskId, Object result) {
+        TaskResult task = new TaskResult(taskId, TaskResult.Status.SUCCEEDED, result, null, null);
+        tasks.put(taskId, task);
+        return task;
+    }
+
+    public TaskResult fail(String taskId, Throwable e) {
+        BatchRejectedException.Reason rejection =
+                e instanceof BatchRejectedException ? ((BatchRejectedException) e).getReason() : null;
+        TaskResult task = new TaskResult(taskId, TaskResult.Status.FAILED, null, e.getMessage(), rejection);
+        tasks.put(taskId, task);
+        return task;
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.demo.service;
+
+import com.example.demo.domain.User;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * 用户的进程内缓存
+ * <p>
+ * 按条数限制大小, 使用 Caffeine 的 W-TinyLFU 淘汰策略, 写入后 ttl 过期。
+ * 命中、未命中、淘汰等统计通过 Micrometer 以 cache.* 指标导出
+ *
+ * @author limaofeng
+ */
+@Component
+public class UserCache {
+
+    private final Cache<Long, User> byId;
+    private final Cache<String, Long> idByUsername;
+
+    public UserCache(MeterRegistry meterRegistry,
+                     @Value("${demo.user.cache.maximum-size:100000}") long maximumSize,
+                     @Value("${demo.user.cache.ttl:10m}") Duration ttl) {
+        this.byId = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        this.idByUsername = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, byId, "users");
+        CaffeineCacheMetrics.monitor(meterRegistry, idByUsername, "usernames");
+    }
+
+    public Optional<User> getById(Long id, Function<Long, Optional<User>> loader) {
+        return Optional.ofNullable(byId.get(id, key -> loader.apply(key).orElse(null)));
+    }
+
+    public Optional<User> getByUsername(String username, Function<String, Optional<User>> loader) {
+        Long id = idByUsername.getIfPresent(username);
+        if (id != null) {
+            User user = byId.getIfPresent(id);
+            // 用户名被修改后, 旧用户名的映射可能还指向这个 id
+            if (user != null && username.equals(user.getUsername())) {
+                return Optional.of(user);
+            }
+        }
+        Optional<User> user = loader.apply(username);
+        user.ifPresent(this::put);
+        return user;
+    }
+
+    public void put(User user) {
+        byId.put(user.getId(), user);
+        if (user.getUsername() != null) {
+            idByUsername.put(user.getUsername(), user.getId());
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.demo.service;
+
+import com.example.demo.batch.BatchService;
+import com.example.demo.batch.Cargo;
+import com.example.demo.domain.User;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.Assert;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 流式批量导入用户
+ * <p>
+ * 请求体可以是 JSON 数组, 也可以是 NDJSON (每行一个对象)。用 {@link JsonParser} 逐个读取对象, 每 groupSize 条
+ * 通过 {@link BatchService#submitAll} 提交一次, 同时在途的数据不超过 maxInFlight 条, 读取速度跟随写入速度,
+ * 内存占用与请求体大小无关。等待写入的时间超过 timeout 时不再提交, 未写完和未提交的数据都计为失败
+ *
+ * @author limaofeng
+ */
+@Slf4j
+@Service
+public class UserImportService {
+
+    private final BatchService<User, User> batchSaveService;
+    private final ObjectMapper objectMapper;
+    private final ObjectReader userReader;
+    private final int maxInFlight;
+    private final int groupSize;
+    private final long timeoutMillis;
+
+    public UserImportService(@Qualifier("userBatchService") BatchService<User, User> batchSaveService,
+                             ObjectMapper objectMapper,
+                             @Value("${demo.user.import-max-in-flight:10000}") int maxInFlight,
+                             @Value("${demo.user.import-group-size:500}") int groupSize,
+                             @Value("${demo.user.import-timeout:60s}") Duration timeout) {
+        Assert.isTrue(groupSize > 0, "import-group-size must be positive");
+        Assert.isTrue(maxInFlight >= groupSize, "import-max-in-flight must not be less than import-group-size");
+        this.batchSaveService = batchSaveService;
+        this.objectMapper = objectMapper;
+        this.userReader = objectMapper.readerFor(User.class);
+        this.maxInFlight = maxInFlight;
+        this.groupSize = groupSize;
+        this.timeoutMillis = timeout.toMillis();
+    }
+
+    /**
+     * 读取并导入全部数据, 等所有数据写入完成 (或失败) 后返回
+     *
+     * @param in 请求体
+     * @return ImportResult
+     * @throws IOException 读取请求体失败
+     * @throws InterruptedException 等待写入时被中断
+     */
+    public ImportResult importUsers(InputStream in) throws IOException, InterruptedException {
+        Semaphore permits = new Semaphore(maxInFlight);
+        LongAdder inserted = new LongAdder();
+        LongAdder failed = new LongAdder();
+        long submitted = 0;
+        long skipped = 0;
+        boolean timedOut = false;
+        String error = null;
+        List<User> group = new ArrayList<>(groupSize);
+        try (JsonParser parser = objectMapper.getFactory().createParser(in)) {
+            JsonToken token = parser.nextToken();
+            boolean array = token == JsonToken.START_ARRAY;
+            if (array) {
+                token = parser.nextToken();
+            }
+            while (token != null && token != JsonToken.END_ARRAY) {
+                group.add(userReader.readValue(parser));
+                if (group.size() == groupSize) {
+                    if (!timedOut && submit(group, permits, inserted, failed)) {
+                        submitted += group.size();
+                    } else {
+                        // 写入已经卡住, 剩余数据只读取计数, 不再提交
+                        timedOut = true;
+                        skipped += group.size();
+                    }
+                    group = new ArrayList<>(groupSize);
+                }
+                token = parser.nextToken();
+            }
+            if (array && token == null) {
+                error = "Unexpected end of input: missing ']'";
+            }
+        } catch (JsonProcessingException e) {
+            log.warn("Malformed import body: {}", e.getOriginalMessage());
+            error = e.getOriginalMessage();
+        }
+        if (!group.isEmpty()) {
+            if (!timedOut && submit(group, permits, inserted, failed)) {
+                submitted += group.size();
+            } else {
+                timedOut = true;
+                skipped += group.size();
+            }
+        }
+        if (!timedOut && permits.tryAcquire(maxInFlight, timeoutMillis, TimeUnit.MILLISECONDS)) {
+            return new ImportResult(inserted.sum(), failed.sum(), error);
+        }
+        // 超时返回后回调仍可能继续计数, 以一次快照为准: 已提交但未确认写入成功的都算失败
+        long done = inserted.sum();
+        log.warn("Import timed out after {}ms, {} of {} submitted rows not confirmed, {} rows not submitted",
+                timeoutMillis, submitted - done, submitted, skipped);
+        return new ImportResult(done, submitted - done + skipped, error);
+    }
+
+    /**
+     * 整组提交, 写入完成后释放占用的配额
+     *
+     * @return 在 timeout 内没有等到配额时返回 false, 这一组没有提交
+     */
+    private boolean submit(List<User> group, Semaphore permits, LongAdder inserted, LongAdder failed)
+            throws InterruptedException {
+        int size = group.size();
+        if (!permits.tryAcquire(size, timeoutMillis, TimeUnit.MILLISECONDS)) {
+            return false;
+        }
+        CompletableFuture<List<Cargo<User, User>>> future;
+        try {
+            future = batchSaveService.submitAll(group);
+        } catch (RuntimeException e) {
+            permits.release(size);
+            throw e;
+        }
+        future.whenComplete((cargos, e) -> {
+            if (e != null) {
+                failed.add(size);
+            } else {
+                for (Cargo<User, User> cargo : cargos) {
+                    if (cargo.getHearthstone().isCompletedExceptionally()) {
+                        failed.increment();
+                    } else {
+                        inserted.increment();
+                    }
+                }
+            }
+            permits.release(size);
+        });
+        return true;
+    }
+}
@@ -3,35 +3,180 @@ package com.example.demo.service;
 import com.example.demo.batch.Cargo;
 import com.example.demo.dao.UserDao;
 import com.example.demo.domain.User;
+import com.example.demo.shard.ShardedUserDao;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.util.Date;
 import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Service
 public class UserService {
 
     private final UserDao userDao;
+    private final UserCache userCache;
+    /**
+     * 启用分库时不为空, DEMO_USER 的读写都走分片
+     */
+    private final ShardedUserDao shardedUserDao;
 
-    public UserService(UserDao userDao) {
+    public UserService(UserDao userDao, UserCache userCache, Optional<ShardedUserDao> shardedUserDao) {
         this.userDao = userDao;
+        this.userCache = userCache;
+        this.shardedUserDao = shardedUserDao.orElse(null);
     }
 
+    public boolean isSharded() {
+        return this.shardedUserDao != null;
+    }
+
+    public Optional<User> findById(Long id) {
+        if (this.shardedUserDao != null) {
+            return this.userCache.getById(id, this.shardedUserDao::findById);
+        }
+        return this.userCache.getById(id, this.userDao::findById);
+    }
+
+    public Optional<User> findByUsername(String username) {
+        if (this.shardedUserDao != null) {
+            return this.userCache.getByUsername(username, this.shardedUserDao::findByUsername);
+        }
+        return this.userCache.getByUsername(username, this.userDao::findByUsername);
+    }
+
+    /**
+     * 分页查询, 启用分库时按 id 排序
+     */
     public Page<User> findPage(Pageable pageable) {
+        if (this.shardedUserDao != null) {
+            return this.shardedUserDao.findPage(pageable);
+        }
         return this.userDao.findAll(pageable);
     }
 
+    /**
+     * 游标分页, 返回 id 大于 afterId 的下一页数据
+     *
+     * @param afterId 上一页最后一条数据的 id, 为空时从头开始
+     * @param size    每页条数
+     * @return Slice
+     */
+    public Slice<User> findAfter(Long afterId, int size) {
+        long id = afterId == null ? Long.MIN_VALUE : afterId;
+        if (this.shardedUserDao != null) {
+            return this.shardedUserDao.findAfter(id, size);
+        }
+        return this.userDao.findAfter(id, size);
+    }
+
+    /**
+     * 逐行导出全部用户, 不经过缓存
+     *
+     * @param consumer 每读到一行调用一次
+     */
+    public void export(Consumer<User> consumer) {
+        if (this.shardedUserDao != null) {
+            this.shardedUserDao.forEach(consumer);
+            return;
+        }
+        this.userDao.forEach(consumer);
+    }
+
     @Transactional
     public void saveAll(List<Cargo<User, User>> cargos) {
         List<User> users = cargos.stream().map(Cargo::getContent).collect(Collectors.toList());
 
         this.userDao.saveInBatch(users);
 
+        // 提交成功后再通知调用方, 提交失败时异常交给 Worker 处理 (整批失败或拆分重试)
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                for (Cargo<User, User> cargo : cargos) {
+                    User user = cargo.getContent();
+                    userCache.put(user);
+                    cargo.getHearthstone().complete(user);
+                }
+            }
+        });
+    }
+
+    /**
+     * 按 id 批量插入或更新, 调用方拿到的是写入后的最终状态
+     * <p>
+     * 同一 id 的多次修改已在 BatchService 中合并为最新的一次
+     *
+     * @param cargos 数据
+     */
+    @Transactional
+    public void upsertAll(List<Cargo<User, User>> cargos) {
+        Date now = new Date();
+        List<User> users = cargos.stream().map(Cargo::getContent).collect(Collectors.toList());
+        for (User user : users) {
+            user.setUpdatedAt(now);
+            if (user.getCreatedAt() == null) {
+                user.setCreatedAt(now);
+            }
+        }
+
+        this.userDao.upsertInBatch(users);
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                for (Cargo<User, User> cargo : cargos) {
+                    User user = cargo.getContent();
+                    userCache.put(user);
+                    cargo.getHearthstone().complete(user);
+                }
+            }
+        });
+    }
+
+    /**
+     * 启用分库时的批量插入: 按分片拆分后并行写入, 每个分片提交后通知该分片的调用方
+     * <p>
+     * 分片之间没有分布式事务, 一个分片失败时只有该分片的数据失败, 不抛给 Worker 拆分重试
+     *
+     * @param cargos 数据
+     */
+    public void saveAllSharded(List<Cargo<User, User>> cargos) {
+        this.shardedUserDao.saveInBatch(cargos, Cargo::getContent, this::completeShard);
+    }
+
+    /**
+     * 启用分库时的批量插入或更新
+     *
+     * @param cargos 数据
+     */
+    public void upsertAllSharded(List<Cargo<User, User>> cargos) {
+        Date now = new Date();
+        for (Cargo<User, User> cargo : cargos) {
+            User user = cargo.getContent();
+            user.setUpdatedAt(now);
+            if (user.getCreatedAt() == null) {
+                user.setCreatedAt(now);
+            }
+        }
+        this.shardedUserDao.upsertInBatch(cargos, Cargo::getContent, this::completeShard);
+    }
+
+    private void completeShard(List<Cargo<User, User>> cargos, Throwable e) {
         for (Cargo<User, User> cargo : cargos) {
+            if (e != null) {
+                cargo.getHearthstone().completeExceptionally(e);
+                continue;
+            }
             User user = cargo.getContent();
+            userCache.put(user);
             cargo.getHearthstone().complete(user);
         }
     }
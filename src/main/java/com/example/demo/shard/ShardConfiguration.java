@@ -0,0 +1,49 @@
+package com.example.demo.shard;
+
+import com.example.demo.id.SnowflakeIdGenerator;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 分库配置, demo.shard.enabled=true 时生效
+ * <p>
+ * 分片数据源不注册为 Bean, 以免替换掉 JPA 使用的 spring.datasource, 由 {@link ShardedUserDao} 负责关闭
+ *
+ * @author limaofeng
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "demo.shard", name = "enabled", havingValue = "true")
+@EnableConfigurationProperties(ShardProperties.class)
+public class ShardConfiguration {
+
+    @Bean
+    public ShardedUserDao shardedUserDao(ShardProperties properties,
+                                         SnowflakeIdGenerator idGenerator,
+                                         @Value("${demo.user.insert-chunk-size:500}") int insertChunkSize,
+                                         @Value("${demo.user.export-fetch-size:1000}") int exportFetchSize) {
+        List<HikariDataSource> dataSources = new ArrayList<>();
+        for (int i = 0; i < properties.getDataSources().size(); i++) {
+            ShardProperties.DataSource shard = properties.getDataSources().get(i);
+            HikariDataSource dataSource = new HikariDataSource();
+            dataSource.setPoolName("shard-" + i);
+            dataSource.setJdbcUrl(shard.getUrl());
+            dataSource.setUsername(shard.getUsername());
+            dataSource.setPassword(shard.getPassword());
+            dataSource.setMaximumPoolSize(shard.getMaximumPoolSize());
+            dataSources.add(dataSource);
+        }
+        ShardedUserDao dao = new ShardedUserDao(dataSources, idGenerator, insertChunkSize, exportFetchSize,
+                properties.getParallelism());
+        if (properties.isInitializeSchema()) {
+            dao.createSchema();
+        }
+        return dao;
+    }
+}
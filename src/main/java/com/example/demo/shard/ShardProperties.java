@@ -0,0 +1,49 @@
+package com.example.demo.shard;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 分库配置, 对应 demo.shard.*
+ *
+ * @author limaofeng
+ */
+@Data
+@ConfigurationProperties(prefix = "demo.shard")
+public class ShardProperties {
+
+    /**
+     * 是否启用分库, 启用后 DEMO_USER 的读写都走分片数据源; spring.datasource 仍然需要配置, JPA 继续使用它
+     */
+    private boolean enabled;
+
+    /**
+     * 分片数据源, 顺序决定分片下标, 上线后不能调整顺序和数量
+     */
+    private List<DataSource> dataSources = new ArrayList<>();
+
+    /**
+     * 并行访问分片的线程数
+     */
+    private int parallelism = 16;
+
+    /**
+     * 启动时在每个分片上创建 DEMO_USER 表
+     */
+    private boolean initializeSchema;
+
+    @Data
+    public static class DataSource {
+
+        private String url;
+
+        private String username;
+
+        private String password;
+
+        private int maximumPoolSize = 20;
+    }
+}
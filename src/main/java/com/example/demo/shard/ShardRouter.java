@@ -0,0 +1,30 @@
+package com.example.demo.shard;
+
+/**
+ * 按 id 的哈希选择分片
+ * <p>
+ * Snowflake id 的低位是毫秒内的序列号, 低并发时几乎总是 0, 直接取模会让数据集中到少数分片,
+ * 所以先用 MurmurHash3 的 fmix64 打散所有位再取模。分片数量确定后不能再修改
+ *
+ * @author limaofeng
+ */
+public final class ShardRouter {
+
+    private ShardRouter() {
+    }
+
+    /**
+     * @param id     数据 id
+     * @param shards 分片数量
+     * @return 分片下标
+     */
+    public static int route(long id, int shards) {
+        long h = id;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) Math.floorMod(h, (long) shards);
+    }
+}
@@ -0,0 +1,249 @@
+package com.example.demo.shard;
+
+import com.example.demo.domain.User;
+import com.example.demo.id.SnowflakeIdGenerator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.Assert;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 按 id 哈希分库的 DEMO_USER 访问
+ * <p>
+ * 写入时把一批数据按 {@link ShardRouter} 拆成每个分片的子批次, 在各自分片的事务中并行写入;
+ * 按 id 查询直接路由到一个分片, 其余查询向所有分片并行查询后合并 (scatter-gather)。
+ * <p>
+ * 分片之间没有分布式事务, 一个分片失败只影响该分片的子批次
+ *
+ * @author limaofeng
+ */
+@Slf4j
+public class ShardedUserDao implements DisposableBean {
+
+    private static final Comparator<User> BY_ID = Comparator.comparing(User::getId);
+
+    /**
+     * {@link #findPage} 允许的最大 offset, 超过后每个分片要取出的行数和合并排序的开销都不可接受
+     */
+    static final int MAX_PAGE_OFFSET = 10_000;
+
+    private final List<UserShard> shards;
+    private final SnowflakeIdGenerator idGenerator;
+    private final int exportFetchSize;
+    private final ExecutorService executor;
+
+    /**
+     * @param dataSources     每个分片的数据源, 顺序决定分片下标, 实现了 Closeable 的数据源在销毁时关闭
+     * @param idGenerator     id 生成器
+     * @param chunkSize       每条多行语句的最大行数
+     * @param exportFetchSize 导出时的 fetch size
+     * @param parallelism     并行访问分片的线程数
+     */
+    public ShardedUserDao(List<? extends DataSource> dataSources, SnowflakeIdGenerator idGenerator,
+                          int chunkSize, int exportFetchSize, int parallelism) {
+        Assert.notEmpty(dataSources, "At least one shard data source is required");
+        List<UserShard> list = new ArrayList<>(dataSources.size());
+        for (int i = 0; i < dataSources.size(); i++) {
+            list.add(new UserShard(i, dataSources.get(i), chunkSize));
+        }
+        this.shards = list;
+        this.idGenerator = idGenerator;
+        this.exportFetchSize = exportFetchSize;
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("shard-");
+        threadFactory.setDaemon(true);
+        this.executor = Executors.newFixedThreadPool(parallelism, threadFactory);
+    }
+
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    /**
+     * 在每个分片上创建 DEMO_USER 表 (已存在时跳过)
+     */
+    public void createSchema() {
+        shards.forEach(UserShard::createSchema);
+    }
+
+    /**
+     * 分配 id 后按分片拆分并行插入, 每个分片提交 (或失败) 后调用一次 done
+     *
+     * @param items 数据, 如 Worker 中的 Cargo
+     * @param user  从数据中取出 User
+     * @param done  参数依次为该分片的子批次、失败原因 (成功时为 null), 在分片线程上调用
+     * @param <C>   数据类型
+     */
+    public <C> void saveInBatch(List<C> items, Function<C, User> user, BiConsumer<List<C>, Throwable> done) {
+        long[] ids = idGenerator.nextIds(items.size());
+        for (int i = 0; i < ids.length; i++) {
+            user.apply(items.get(i)).setId(ids[i]);
+        }
+        write(items, user, done, (shard, users) -> shard.jdbc().insert(users));
+    }
+
+    /**
+     * 按分片拆分并行插入或更新, 已存在的行保留原来的创建时间
+     *
+     * @param items 数据, User 的 id 不能为空, 同一批中不能重复
+     * @param user  从数据中取出 User
+     * @param done  参数依次为该分片的子批次、失败原因 (成功时为 null), 在分片线程上调用
+     * @param <C>   数据类型
+     */
+    public <C> void upsertInBatch(List<C> items, Function<C, User> user, BiConsumer<List<C>, Throwable> done) {
+        write(items, user, done, (shard, users) -> shard.jdbc().upsert(users));
+    }
+
+    private <C> void write(List<C> items, Function<C, User> user, BiConsumer<List<C>, Throwable> done,
+                           BiConsumer<UserShard, List<User>> action) {
+        Map<UserShard, List<C>> groups = new LinkedHashMap<>();
+        for (C item : items) {
+            groups.computeIfAbsent(route(user.apply(item).getId()), k -> new ArrayList<>()).add(item);
+        }
+        List<CompletableFuture<Void>> futures = new ArrayList<>(groups.size());
+        for (Map.Entry<UserShard, List<C>> entry : groups.entrySet()) {
+            UserShard shard = entry.getKey();
+            List<C> group = entry.getValue();
+            Runnable task = () -> {
+                List<User> users = new ArrayList<>(group.size());
+                group.forEach(item -> users.add(user.apply(item)));
+                try {
+                    shard.inTransaction(() -> action.accept(shard, users));
+                } catch (RuntimeException e) {
+                    log.error("Shard {} failed to write {} rows: {}", shard.getIndex(), users.size(), e.getMessage());
+                    done.accept(group, e);
+                    return;
+                }
+                done.accept(group, null);
+            };
+            futures.add(CompletableFuture.runAsync(task, executor));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+    }
+
+    public Optional<User> findById(long id) {
+        return route(id).jdbc().findById(id);
+    }
+
+    /**
+     * 按用户名查询所有分片, 存在重名时返回 id 最小的一条
+     */
+    public Optional<User> findByUsername(String username) {
+        return scatter(shard -> shard.jdbc().findByUsername(username)).stream()
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .min(BY_ID);
+    }
+
+    /**
+     * 每个分片按 id 顺序各取 size + 1 条, 合并后取前 size 条
+     */
+    public Slice<User> findAfter(long id, int size) {
+        List<User> users = merge(scatter(shard -> shard.jdbc().findAfter(id, size + 1)));
+        boolean hasNext = users.size() > size;
+        return new SliceImpl<>(hasNext ? users.subList(0, size) : users, PageRequest.ofSize(size), hasNext);
+    }
+
+    /**
+     * 按 id 顺序分页
+     * <p>
+     * 任何一个分片都可能持有全局前 offset + size 条中的全部数据, 所以每个分片都要取出 offset + size 条,
+     * 在内存中合并排序后丢掉前 offset 条, 读取量是 分片数 × (offset + size); 每次还要在所有分片上执行一次 COUNT。
+     * offset 超过 {@link #MAX_PAGE_OFFSET} 时直接拒绝, 深翻页和逐页遍历使用基于 id 游标的 {@link #findAfter}
+     *
+     * @throws IllegalArgumentException 未分页或 offset 超过 {@link #MAX_PAGE_OFFSET}
+     */
+    public Page<User> findPage(Pageable pageable) {
+        Assert.isTrue(pageable.isPaged(), "Sharded queries require a paged request");
+        long offset = pageable.getOffset();
+        Assert.isTrue(offset <= MAX_PAGE_OFFSET,
+                "Sharded page offset must not exceed " + MAX_PAGE_OFFSET + ", use findAfter for deep paging");
+        int limit = (int) Math.min(Integer.MAX_VALUE, offset + pageable.getPageSize());
+        List<List<User>> pages = scatter(shard -> shard.jdbc().findAfter(Long.MIN_VALUE, limit));
+        long total = scatter(shard -> shard.jdbc().count()).stream().mapToLong(Long::longValue).sum();
+        List<User> users = merge(pages);
+        List<User> content = offset >= users.size()
+                ? new ArrayList<>()
+                : users.subList((int) offset, Math.min(users.size(), limit));
+        return new PageImpl<>(content, pageable, total);
+    }
+
+    /**
+     * 依次导出每个分片, 分片内按 id 顺序, 分片之间不保证顺序
+     */
+    public void forEach(Consumer<User> consumer) {
+        for (UserShard shard : shards) {
+            shard.jdbc().forEach(consumer, exportFetchSize);
+        }
+    }
+
+    private UserShard route(long id) {
+        return shards.get(ShardRouter.route(id, shards.size()));
+    }
+
+    /**
+     * 在所有分片上并行执行, 按分片顺序返回结果, 任一分片失败时抛出其异常
+     */
+    private <R> List<R> scatter(Function<UserShard, R> query) {
+        if (shards.size() == 1) {
+            return Collections.singletonList(query.apply(shards.get(0)));
+        }
+        List<CompletableFuture<R>> futures = new ArrayList<>(shards.size());
+        for (UserShard shard : shards) {
+            futures.add(CompletableFuture.supplyAsync(() -> query.apply(shard), executor));
+        }
+        List<R> results = new ArrayList<>(futures.size());
+        try {
+            for (CompletableFuture<R> future : futures) {
+                results.add(future.join());
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+        return results;
+    }
+
+    private static List<User> merge(List<List<User>> lists) {
+        List<User> users = new ArrayList<>();
+        lists.forEach(users::addAll);
+        users.sort(BY_ID);
+        return users;
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdown();
+        for (UserShard shard : shards) {
+            try {
+                shard.close();
+            } catch (IOException e) {
+                log.warn("Failed to close shard {}: {}", shard.getIndex(), e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.demo.shard;
+
+import com.example.demo.dao.impl.UserJdbcOperations;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * 一个分片: 独立的数据源、事务管理器和 DEMO_USER 表的 JDBC 操作
+ *
+ * @author limaofeng
+ */
+class UserShard {
+
+    private static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS DEMO_USER ("
+            + "ID BIGINT NOT NULL PRIMARY KEY, NICKNAME VARCHAR(30), USERNAME VARCHAR(30), PASSWORD VARCHAR(21),"
+            + " CREATED_AT TIMESTAMP(6) NULL, UPDATED_AT TIMESTAMP(6) NULL)";
+
+    private final int index;
+    private final DataSource dataSource;
+    private final JdbcTemplate jdbcTemplate;
+    private final UserJdbcOperations jdbc;
+    private final TransactionTemplate transactionTemplate;
+
+    UserShard(int index, DataSource dataSource, int chunkSize) {
+        this.index = index;
+        this.dataSource = dataSource;
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbc = new UserJdbcOperations(jdbcTemplate, chunkSize);
+        this.transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+    }
+
+    int getIndex() {
+        return index;
+    }
+
+    UserJdbcOperations jdbc() {
+        return jdbc;
+    }
+
+    /**
+     * 在本分片的事务中执行, 返回时事务已经提交
+     */
+    void inTransaction(Runnable action) {
+        transactionTemplate.executeWithoutResult(status -> action.run());
+    }
+
+    void createSchema() {
+        jdbcTemplate.execute(CREATE_TABLE);
+    }
+
+    void close() throws IOException {
+        if (dataSource instanceof Closeable) {
+            ((Closeable) dataSource).close();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.demo.web;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * 游标分页的返回结果
+ * <p>
+ * next_cursor 是对上一页最后一条数据 id 的不透明编码, 客户端原样回传即可取得下一页
+ *
+ * @author limaofeng
+ */
+@Data
+@AllArgsConstructor
+public class CursorPage<T> {
+
+    private List<T> content;
+
+    private int size;
+
+    @JsonProperty("has_next")
+    private boolean hasNext;
+
+    @JsonProperty("next_cursor")
+    private String nextCursor;
+
+    public static String encode(long id) {
+        byte[] bytes = ByteBuffer.allocate(Long.BYTES).putLong(id).array();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    /**
+     * 解析游标
+     *
+     * @param cursor 游标
+     * @return id
+     * @throws IllegalArgumentException 游标格式不正确
+     */
+    public static long decode(String cursor) {
+        byte[] bytes = Base64.getUrlDecoder().decode(cursor);
+        if (bytes.length != Long.BYTES) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+        return ByteBuffer.wrap(bytes).getLong();
+    }
+}
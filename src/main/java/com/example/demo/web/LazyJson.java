@@ -0,0 +1,93 @@
+package com.example.demo.web;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.ObjectCodec;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import java.io.IOException;
+
+/**
+ * 延迟解析的 JSON 值
+ * <p>
+ * 反序列化时只把 token 原样复制到 {@link TokenBuffer}, 不构建 {@link JsonNode} 树。只转发或保存时直接把 token
+ * 写回输出, 顺序读取的算法通过 {@link #parser()} 流式读取, 需要随机访问时再调用 {@link #tree()} 构建树,
+ * 大报文下可以省掉大量的节点对象
+ *
+ * @author limaofeng
+ */
+public class LazyJson implements JsonSerializable {
+
+    private final TokenBuffer buffer;
+    private final ObjectCodec codec;
+    private volatile JsonNode tree;
+
+    public LazyJson(TokenBuffer buffer, ObjectCodec codec) {
+        this.buffer = buffer;
+        this.codec = codec;
+    }
+
+    /**
+     * 返回一个新的解析器, 从头读取该值, 可以多次调用
+     *
+     * @return JsonParser
+     */
+    public JsonParser parser() {
+        return buffer.asParser(codec);
+    }
+
+    /**
+     * 构建并缓存 JSON 树
+     *
+     * @return JsonNode
+     * @throws IOException 解析失败
+     */
+    public JsonNode tree() throws IOException {
+        JsonNode node = tree;
+        if (node == null) {
+            try (JsonParser parser = parser()) {
+                parser.nextToken();
+                node = codec.readTree(parser);
+            }
+            tree = node;
+        }
+        return node;
+    }
+
+    /**
+     * 直接绑定为指定类型, 不经过 JSON 树
+     *
+     * @param type 类型
+     * @param <T>  类型
+     * @return 对象
+     * @throws IOException 解析失败
+     */
+    public <T> T as(Class<T> type) throws IOException {
+        try (JsonParser parser = parser()) {
+            parser.nextToken();
+            return codec.readValue(parser, type);
+        }
+    }
+
+    public <T> T as(TypeReference<T> type) throws IOException {
+        try (JsonParser parser = parser()) {
+            parser.nextToken();
+            return codec.readValue(parser, type);
+        }
+    }
+
+    @Override
+    public void serialize(JsonGenerator gen, SerializerProvider serializers) throws IOException {
+        buffer.serialize(gen);
+    }
+
+    @Override
+    public void serializeWithType(JsonGenerator gen, SerializerProvider serializers, TypeSerializer typeSer) throws IOException {
+        serialize(gen, serializers);
+    }
+}
@@ -1,7 +1,6 @@
 package com.example.demo.web;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -30,5 +29,5 @@ public class MessageBody {
     @Builder.Default private MessageProcessingMode mode = MessageProcessingMode.async;
 
     @JsonDeserialize(using = MessageBodyInputDeserializer.class)
-    private JsonNode input;
+    private LazyJson input;
 }
\ No newline at end of file
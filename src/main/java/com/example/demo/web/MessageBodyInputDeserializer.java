@@ -3,13 +3,15 @@ package com.example.demo.web;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.JsonDeserializer;
-import com.fasterxml.jackson.databind.JsonNode;
 
 import java.io.IOException;
 
-public class MessageBodyInputDeserializer extends JsonDeserializer<JsonNode> {
+/**
+ * 把 input 复制为 token 序列, 不构建 JSON 树
+ */
+public class MessageBodyInputDeserializer extends JsonDeserializer<LazyJson> {
     @Override
-    public JsonNode deserialize(JsonParser jp, DeserializationContext context) throws IOException {
-        return jp.readValueAsTree();
+    public LazyJson deserialize(JsonParser jp, DeserializationContext context) throws IOException {
+        return new LazyJson(context.bufferAsCopyOfValue(jp), jp.getCodec());
     }
-}
\ No newline at end of file
+}
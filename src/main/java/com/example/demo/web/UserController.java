@@ -1,28 +1,70 @@
 package com.example.demo.web;
 
+import cn.hutool.core.util.IdUtil;
+import com.example.demo.batch.BatchRejectedException;
 import com.example.demo.batch.BatchService;
 import com.example.demo.domain.User;
+import com.example.demo.service.ImportResult;
+import com.example.demo.service.TaskResult;
+import com.example.demo.service.TaskStore;
+import com.example.demo.service.UserImportService;
 import com.example.demo.service.UserService;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.util.UriComponentsBuilder;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @Slf4j
 @Controller
 public class UserController {
 
+    private static final int MAX_CURSOR_PAGE_SIZE = 1000;
+
     private final UserService userService;
     private final BatchService<User, User> batchSaveService;
+    private final BatchService<User, User> batchUpsertService;
+    private final UserImportService userImportService;
+    private final TaskStore taskStore;
+    private final ObjectMapper objectMapper;
+    private final long syncTimeoutMillis;
 
-    public UserController(UserService userService) {
+    public UserController(UserService userService,
+                          @Qualifier("userBatchService") BatchService<User, User> batchSaveService,
+                          @Qualifier("userUpsertService") BatchService<User, User> batchUpsertService,
+                          UserImportService userImportService,
+                          TaskStore taskStore,
+                          ObjectMapper objectMapper,
+                          @Value("${demo.infer.sync-timeout:5s}") Duration syncTimeout) {
         this.userService = userService;
-        this.batchSaveService = BatchService.create(UserController.this.userService::saveAll, 500, 8);
+        this.batchSaveService = batchSaveService;
+        this.batchUpsertService = batchUpsertService;
+        this.userImportService = userImportService;
+        this.taskStore = taskStore;
+        this.objectMapper = objectMapper;
+        this.syncTimeoutMillis = syncTimeout.toMillis();
     }
 
     @GetMapping("/users")
@@ -31,6 +73,73 @@ public class UserController {
         return this.userService.findPage(Pageable.ofSize(20));
     }
 
+    /**
+     * 游标分页, 不统计总数, 翻页深度不影响查询耗时
+     *
+     * @param cursor 上一页返回的 next_cursor, 第一页不传
+     * @param size   每页条数
+     * @return CursorPage
+     */
+    @GetMapping("/users/cursor")
+    @ResponseBody
+    public CursorPage<User> users(@RequestParam(required = false) String cursor,
+                                  @RequestParam(defaultValue = "20") int size) {
+        if (size < 1 || size > MAX_CURSOR_PAGE_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "size must be between 1 and " + MAX_CURSOR_PAGE_SIZE);
+        }
+        Long afterId;
+        try {
+            afterId = cursor == null || cursor.isEmpty() ? null : CursorPage.decode(cursor);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        Slice<User> slice = this.userService.findAfter(afterId, size);
+        List<User> content = slice.getContent();
+        String next = slice.hasNext() ? CursorPage.encode(content.get(content.size() - 1).getId()) : null;
+        return new CursorPage<>(content, size, slice.hasNext(), next);
+    }
+
+    /**
+     * 以 NDJSON 格式导出全部用户, 每行一个 JSON 对象
+     * <p>
+     * 边读边写, 不在内存中累积数据; 在请求线程上同步执行, 不受异步请求超时的限制
+     *
+     * @param response HttpServletResponse
+     * @throws IOException 客户端断开连接时抛出, 同时中止查询
+     */
+    @GetMapping("/users/export")
+    public void export(HttpServletResponse response) throws IOException {
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        response.setCharacterEncoding("UTF-8");
+        try (JsonGenerator generator = objectMapper.createGenerator(response.getOutputStream())) {
+            generator.setRootValueSeparator(null);
+            this.userService.export(user -> {
+                try {
+                    generator.writeObject(user);
+                    generator.writeRaw('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    @GetMapping("/users/{id}")
+    @ResponseBody
+    public User user(@PathVariable Long id) {
+        return this.userService.findById(id)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+    }
+
+    @GetMapping(value = "/users", params = "username")
+    @ResponseBody
+    public User user(@RequestParam String username) {
+        return this.userService.findByUsername(username)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+    }
+
     @PostMapping("/users")
     @ResponseStatus(HttpStatus.CREATED)
     @ResponseBody
@@ -38,9 +147,131 @@ public class UserController {
         return this.batchSaveService.submit(user);
     }
 
+    /**
+     * 按 id 插入或更新, 与同一时间窗口内的其他修改合并成一条语句写入; 同一 id 的并发修改以最后一次为准
+     *
+     * @param id   用户 id
+     * @param user 用户信息, 请求体中的 id 被忽略
+     * @return 写入后的最终状态
+     */
+    @PutMapping("/users/{id}")
+    @ResponseBody
+    public CompletableFuture<User> putUser(@PathVariable Long id, @RequestBody User user) {
+        user.setId(id);
+        return this.batchUpsertService.submit(user);
+    }
+
+    /**
+     * 批量导入, 请求体为 JSON 数组或 NDJSON, 边读边写
+     *
+     * @param request HttpServletRequest
+     * @return 成功与失败的条数, 请求体格式错误时返回 400 和出错前的处理结果
+     */
+    @PostMapping(value = "/users/bulk", consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    @ResponseBody
+    public ResponseEntity<ImportResult> bulk(HttpServletRequest request) throws IOException, InterruptedException {
+        ImportResult result = this.userImportService.importUsers(request.getInputStream());
+        return ResponseEntity.status(result.getError() == null ? HttpStatus.OK : HttpStatus.BAD_REQUEST).body(result);
+    }
+
+    /**
+     * 提交推理任务
+     * <p>
+     * async 模式立即返回 202 和任务 id, 结果通过 {@link #task(String)} 查询; sync 模式在 sync-timeout 内等待结果,
+     * 超时后同样返回 202, 不占用请求线程。task_id 相同的重复请求不会重复处理, 直接返回已有任务的状态
+     *
+     * @param request HttpServletRequest
+     * @param body    请求
+     * @return DeferredResult
+     */
     @PostMapping("/algorithms/id/infer")
     @ResponseBody
-    public CompletableFuture<User> infer(HttpServletRequest request, @RequestBody MessageBody body) {
-        return this.batchSaveService.submit(User.builder().nickname("11").username("xxxx").password("xxxx").build());
+    public DeferredResult<ResponseEntity<TaskResult>> infer(HttpServletRequest request, @RequestBody MessageBody body) {
+        String taskId = body.getTaskId() != null ? body.getTaskId() : IdUtil.fastSimpleUUID();
+        DeferredResult<ResponseEntity<TaskResult>> deferred =
+                new DeferredResult<>(syncTimeoutMillis, () -> accepted(this.pendingOrCurrent(taskId)));
+        TaskResult existing = this.taskStore.register(taskId);
+        if (existing != null) {
+            deferred.setResult(existing.isDone() ? respond(existing) : accepted(existing));
+            return deferred;
+        }
+        boolean sync = body.getMode() == MessageProcessingMode.sync;
+        this.batchSaveService
+                .submit(User.builder().nickname("11").username("xxxx").password("xxxx").build())
+                .whenComplete((user, e) -> {
+                    TaskResult task = e == null ? this.taskStore.succeed(taskId, user) : this.taskStore.fail(taskId, unwrap(e));
+                    if (sync) {
+                        deferred.setResult(respond(task));
+                    }
+                });
+        if (!sync) {
+            deferred.setResult(accepted(TaskResult.pending(taskId)));
+        }
+        return deferred;
+    }
+
+    /**
+     * 查询推理任务
+     *
+     * @param taskId 任务 id
+     * @return 处理中返回 202, 已完成返回 200 和结果, 不存在或已过期返回 404
+     */
+    @GetMapping("/algorithms/id/tasks/{taskId}")
+    @ResponseBody
+    public ResponseEntity<TaskResult> task(@PathVariable String taskId) {
+        TaskResult task = this.taskStore.get(taskId);
+        if (task == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+        }
+        return task.isDone() ? ResponseEntity.ok(task) : accepted(task);
+    }
+
+    /**
+     * 任务当前状态, 已被 TaskStore 淘汰时视为仍在处理中
+     */
+    private TaskResult pendingOrCurrent(String taskId) {
+        TaskResult task = this.taskStore.get(taskId);
+        return task != null ? task : TaskResult.pending(taskId);
+    }
+
+    /**
+     * task_id 由客户端提供, 作为 URI 变量整体编码, 其中的空格、%、#、/ 等字符不会破坏 Location
+     */
+    private static ResponseEntity<TaskResult> accepted(TaskResult task) {
+        URI location = UriComponentsBuilder.fromPath("/algorithms/id/tasks/{taskId}")
+                .encode()
+                .buildAndExpand(task.getTaskId())
+                .toUri();
+        return ResponseEntity.accepted().location(location).body(task);
+    }
+
+    /**
+     * 已完成任务的响应, 被拒绝的任务 (包括重复请求) 都返回 429/503 和 Retry-After
+     */
+    private static ResponseEntity<TaskResult> respond(TaskResult task) {
+        if (task.getStatus() == TaskResult.Status.SUCCEEDED) {
+            return ResponseEntity.ok(task);
+        }
+        if (task.getRejection() != null) {
+            return ResponseEntity.status(statusOf(task.getRejection()))
+                    .header(HttpHeaders.RETRY_AFTER, "1")
+                    .body(task);
+        }
+        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(task);
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+
+    private static HttpStatus statusOf(BatchRejectedException.Reason reason) {
+        return reason == BatchRejectedException.Reason.QUEUE_FULL
+                ? HttpStatus.TOO_MANY_REQUESTS
+                : HttpStatus.SERVICE_UNAVAILABLE;
+    }
+
+    @ExceptionHandler(BatchRejectedException.class)
+    public ResponseEntity<Void> rejected(BatchRejectedException e) {
+        return ResponseEntity.status(statusOf(e.getReason())).header(HttpHeaders.RETRY_AFTER, "1").build();
     }
 }
@@ -0,0 +1,179 @@
+package com.example.demo;
+
+import com.example.demo.domain.User;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.CountAtBucket;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntPredicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 端到端压测, 在内嵌的 Web 服务器和 H2 上运行, 不依赖数据库服务器
+ * <p>
+ * 默认的 test 任务不运行, 使用 ./gradlew loadTest 执行, 通过系统属性调整参数:
+ * <pre>
+ *   ./gradlew loadTest -Dload.concurrency=64 -Dload.requests=50000
+ * </pre>
+ * 输出吞吐、延迟分位数 (p50/p99/p999) 以及这段时间内 BatchService 实际的批大小分布
+ *
+ * @author limaofeng
+ */
+@Tag("load")
+@ActiveProfiles("test")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class LoadTests {
+
+    private static final int CONCURRENCY = Integer.getInteger("load.concurrency", 32);
+    private static final int REQUESTS = Integer.getInteger("load.requests", 20000);
+    private static final int WARMUP = Integer.getInteger("load.warmup", 2000);
+
+    static {
+        // HttpURLConnection 默认每个地址只保持 5 个空闲连接, 并发高时会反复建连
+        System.setProperty("http.maxConnections", String.valueOf(CONCURRENCY));
+    }
+
+    @Autowired
+    private TestRestTemplate rest;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    @Test
+    void createUsers() throws InterruptedException {
+        run("POST /users", i -> rest.postForEntity("/users", User.builder()
+                .username("load-" + sequence.incrementAndGet())
+                .nickname("load")
+                .password("load")
+                .build(), Void.class).getStatusCode().is2xxSuccessful());
+    }
+
+    @Test
+    void inferSync() throws InterruptedException {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        HttpEntity<String> body = new HttpEntity<>("{\"mode\":\"sync\",\"input\":{\"image\":\"load\"}}", headers);
+        run("POST /algorithms/id/infer (sync)",
+                i -> rest.postForEntity("/algorithms/id/infer", body, String.class).getStatusCodeValue() == 200);
+    }
+
+    /**
+     * 先预热, 再以 CONCURRENCY 个线程发出 REQUESTS 个请求并统计
+     *
+     * @param name    场景名称
+     * @param request 发出第 i 个请求, 返回是否成功
+     */
+    private void run(String name, IntPredicate request) throws InterruptedException {
+        drive(WARMUP, request, null);
+        HistogramSnapshot before = batchSizes().takeSnapshot();
+        HistogramSnapshot flushBefore = flushes().takeSnapshot();
+        long[] latencies = new long[REQUESTS];
+        long start = System.nanoTime();
+        int errors = drive(REQUESTS, request, latencies);
+        long elapsed = System.nanoTime() - start;
+        HistogramSnapshot after = batchSizes().takeSnapshot();
+        HistogramSnapshot flushAfter = flushes().takeSnapshot();
+
+        Arrays.sort(latencies);
+        StringBuilder report = new StringBuilder()
+                .append(String.format("%n=== %s: %d requests, concurrency %d ===%n", name, REQUESTS, CONCURRENCY))
+                .append(String.format("throughput  %.0f req/s%n", REQUESTS * 1e9 / elapsed))
+                .append(String.format("errors      %d%n", errors))
+                .append(String.format("latency     p50 %.2f ms, p99 %.2f ms, p999 %.2f ms, max %.2f ms%n",
+                        millis(percentile(latencies, 0.5)), millis(percentile(latencies, 0.99)),
+                        millis(percentile(latencies, 0.999)), millis(latencies[latencies.length - 1])));
+        long flushCount = flushAfter.count() - flushBefore.count();
+        report.append(String.format("flush       mean %.2f ms%n",
+                flushCount == 0 ? 0 : (flushAfter.total(TimeUnit.MILLISECONDS) - flushBefore.total(TimeUnit.MILLISECONDS)) / flushCount));
+        appendBatchSizes(report, before, after);
+        System.out.println(report);
+        assertEquals(0, errors, "failed requests");
+    }
+
+    private int drive(int requests, IntPredicate request, long[] latencies) throws InterruptedException {
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(CONCURRENCY);
+        for (int t = 0; t < CONCURRENCY; t++) {
+            executor.execute(() -> {
+                for (int i = next.getAndIncrement(); i < requests; i = next.getAndIncrement()) {
+                    long begin = System.nanoTime();
+                    boolean ok;
+                    try {
+                        ok = request.test(i);
+                    } catch (RuntimeException e) {
+                        ok = false;
+                    }
+                    if (latencies != null) {
+                        latencies[i] = System.nanoTime() - begin;
+                    }
+                    if (!ok) {
+                        errors.incrementAndGet();
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.MINUTES), "load did not finish");
+        return errors.get();
+    }
+
+    private DistributionSummary batchSizes() {
+        return meterRegistry.get("batch.size").tag("service", "user").summary();
+    }
+
+    private Timer flushes() {
+        return meterRegistry.get("batch.flush").tag("service", "user").timer();
+    }
+
+    /**
+     * 两次快照之间每个区间的批次数, 以及平均批大小
+     */
+    private static void appendBatchSizes(StringBuilder report, HistogramSnapshot before, HistogramSnapshot after) {
+        long batches = after.count() - before.count();
+        double items = after.total() - before.total();
+        report.append(String.format("batches     %d, mean size %.1f%n", batches, batches == 0 ? 0 : items / batches));
+        CountAtBucket[] start = before.histogramCounts();
+        CountAtBucket[] end = after.histogramCounts();
+        double previous = 0;
+        double lower = 0;
+        for (int i = 0; i < end.length; i++) {
+            double cumulative = end[i].count() - (i < start.length ? start[i].count() : 0);
+            double count = cumulative - previous;
+            if (count > 0) {
+                report.append(String.format("  size (%4.0f, %4.0f]  %6.0f batches%n", lower, end[i].bucket(), count));
+            }
+            previous = cumulative;
+            lower = end[i].bucket();
+        }
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+}
@@ -0,0 +1,362 @@
+package com.example.demo.batch;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DefaultBatchServiceTests {
+
+    private static void complete(List<Cargo<Integer, Integer>> cargos) {
+        cargos.forEach(cargo -> cargo.getHearthstone().complete(cargo.getContent()));
+    }
+
+    @Test
+    void stopFlushesQueuedItemsAndRejectsNewOnes() {
+        DefaultBatchService<Integer, Integer> service = new DefaultBatchService<>(DefaultBatchServiceTests::complete,
+                BatchOptions.<Integer, Integer>builder()
+                        .batchSize(10)
+                        .works(2)
+                        .linger(50, TimeUnit.MILLISECONDS)
+                        .build());
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            futures.add(service.submit(i));
+        }
+        service.stop();
+
+        assertFalse(service.isRunning());
+        for (int i = 0; i < futures.size(); i++) {
+            assertEquals(i, futures.get(i).join());
+        }
+        CompletionException e = assertThrows(CompletionException.class, () -> service.submit(1).join());
+        assertEquals(BatchRejectedException.Reason.SHUTDOWN, ((BatchRejectedException) e.getCause()).getReason());
+    }
+
+    @Test
+    void submissionsRacingWithStopAlwaysComplete() throws Exception {
+        DefaultBatchService<Integer, Integer> service = new DefaultBatchService<>(DefaultBatchServiceTests::complete,
+                BatchOptions.<Integer, Integer>builder()
+                        .batchSize(10)
+                        .works(2)
+                        .shutdownTimeout(0, TimeUnit.MILLISECONDS)
+                        .build());
+        List<CompletableFuture<Integer>> futures = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> producers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread producer = new Thread(() -> {
+                for (int i = 0; i < 20000; i++) {
+                    futures.add(service.submit(i));
+                }
+            });
+            producer.start();
+            producers.add(producer);
+        }
+        Thread.sleep(5);
+        service.stop();
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        // 与 stop 并发的提交要么保存, 要么以 SHUTDOWN 失败, 不会一直挂起
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+                .handle((result, e) -> null)
+                .get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void workerSurvivesExceptionsOutsideTheSaver() {
+        DefaultBatchService<Integer, Integer> service = new DefaultBatchService<>(DefaultBatchServiceTests::complete,
+                BatchOptions.<Integer, Integer>builder()
+                        .batchSize(1)
+                        .works(1)
+                        .coalesce(i -> {
+                            if (i == 1) {
+                                throw new IllegalArgumentException("bad key");
+                            }
+                            return i;
+                        })
+                        .build());
+        CompletionException e = assertThrows(CompletionException.class, () -> service.submit(1).join());
+        assertTrue(e.getCause() instanceof IllegalArgumentException);
+        assertEquals(2, service.submit(2).join());
+        service.stop();
+    }
+
+    @Test
+    void submitAllCompletesGroupWithPerItemResults() {
+        DefaultBatchService<Integer, Integer> service = new DefaultBatchService<>(cargos -> cargos.forEach(cargo -> {
+            if (cargo.getContent() % 2 == 0) {
+                cargo.getHearthstone().complete(cargo.getContent());
+            } else {
+                cargo.getHearthstone().completeExceptionally(new IllegalArgumentException("odd"));
+            }
+        }), BatchOptions.<Integer, Integer>builder()
+                .batchSize(7)
+                .works(4)
+                .queueFactory(() -> new MpscRingBuffer<>(64))
+                .build());
+        List<Integer> entities = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            entities.add(i);
+        }
+        List<Cargo<Integer, Integer>> cargos = service.submitAll(entities).join();
+        assertTrue(service.submitAll(Collections.emptyList()).join().isEmpty());
+        service.stop();
+
+        assertEquals(50, cargos.size());
+        for (int i = 0; i < cargos.size(); i++) {
+            CompletableFuture<Integer> hearthstone = cargos.get(i).getHearthstone();
+            assertEquals(i, cargos.get(i).getContent());
+            assertTrue(hearthstone.isDone());
+            assertEquals(i % 2 != 0, hearthstone.isCompletedExceptionally());
+        }
+    }
+
+    @Test
+    void pipelinedModeOverlapsCollectionAndKeepsOrderWhenRequested() {
+        for (boolean ordered : new boolean[]{true, false}) {
+            List<Integer> saved = Collections.synchronizedList(new ArrayList<>());
+            AtomicInteger saving = new AtomicInteger();
+            AtomicInteger maxSaving = new AtomicInteger();
+            AtomicInteger maxInFlight = new AtomicInteger();
+            List<DefaultBatchService<Integer, Integer>> holder = new ArrayList<>();
+            DefaultBatchService<Integer, Integer> service = new DefaultBatchService<>(cargos -> {
+                maxSaving.accumulateAndGet(saving.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                maxInFlight.accumulateAndGet(holder.get(0).getWorkers().get(0).getInFlight(), Math::max);
+                cargos.forEach(cargo -> saved.add(cargo.getContent()));
+                saving.decrementAndGet();
+                complete(cargos);
+            }, BatchOptions.<Integer, Integer>builder()
+                    .batchSize(10)
+                    .works(1)
+                    .pipelined(3, ordered)
+                    .build());
+            holder.add(service);
+            List<CompletableFuture<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < 300; i++) {
+                futures.add(service.submit(i));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                assertEquals(i, futures.get(i).join());
+            }
+            service.stop();
+
+            assertEquals(300, saved.size());
+            assertTrue(maxInFlight.get() > 1, "the next batch is taken while one is saving");
+            if (ordered) {
+                assertEquals(1, maxSaving.get());
+                for (int i = 0; i < saved.size(); i++) {
+                    assertEquals(i, saved.get(i));
+                }
+            } else {
+                assertTrue(maxSaving.get() > 1, "unordered batches are saved concurrently");
+            }
+        }
+    }
+
+    @Test
+    void orderedPipelineKeepsFillingTheNextBatchWhileThePreviousIsSaving() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<List<Integer>> batches = Collections.synchronizedList(new ArrayList<>());
+        DefaultBatchService<Integer, Integer> service = new DefaultBatchService<>(cargos -> {
+            List<Integer> batch = new ArrayList<>();
+            cargos.forEach(cargo -> batch.add(cargo.getContent()));
+            batches.add(batch);
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            complete(cargos);
+        }, BatchOptions.<Integer, Integer>builder()
+                .batchSize(100)
+                .works(1)
+                .pipelined(2, true)
+                .build());
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        futures.add(service.submit(0));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        // 第一批保存期间取出的下一批不会在取数时就封口, 之后到达的数据也并入这一批
+        futures.add(service.submit(1));
+        Thread.sleep(50);
+        for (int i = 2; i < 10; i++) {
+            futures.add(service.submit(i));
+        }
+        Thread.sleep(50);
+        release.countDown();
+        for (int i = 0; i < futures.size(); i++) {
+            assertEquals(i, futures.get(i).get(5, TimeUnit.SECONDS));
+        }
+        service.stop();
+
+        assertEquals(Arrays.asList(Collections.singletonList(0), Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9)), batches);
+    }
+
+    @Test
+    void stopFailsBatchesStillQueuedForTheFlushExecutor() throws Exception {
+        DefaultBatchService<Integer, Integer> service = new DefaultBatchService<>(cargos -> {
+            try {
+                Thread.sleep(300);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            complete(cargos);
+        }, BatchOptions.<Integer, Integer>builder()
+                .batchSize(10)
+                .works(1)
+                .pipelined(3, true)
+                .shutdownTimeout(50, TimeUnit.MILLISECONDS)
+                .build());
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            futures.add(service.submit(i));
+        }
+        Thread.sleep(50);
+        service.stop();
+
+        // 正在保存的一批照常完成, 排在后面的批次以 SHUTDOWN 失败, 不会一直挂起
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+                .handle((result, e) -> null)
+                .get(5, TimeUnit.SECONDS);
+        assertEquals(0, futures.get(0).join());
+        CompletionException e = assertThrows(CompletionException.class, () -> futures.get(29).join());
+        assertEquals(BatchRejectedException.Reason.SHUTDOWN, ((BatchRejectedException) e.getCause()).getReason());
+    }
+
+    @Test
+    void keyAffinityKeepsSameKeyOnOneWorker() {
+        List<Worker<Integer, Integer>> workers = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            workers.add(new Worker<>(DefaultBatchServiceTests::complete, 10));
+        }
+        WorkerRouter<Integer> router = WorkerRouter.keyAffinity(value -> value % 100);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(router.route(i % 100, workers), router.route(i, workers));
+        }
+    }
+
+    @Test
+    void powerOfTwoChoicesAvoidsLongerQueue() {
+        List<Worker<Integer, Integer>> workers = new ArrayList<>();
+        workers.add(new Worker<>(DefaultBatchServiceTests::complete, 10));
+        workers.add(new Worker<>(DefaultBatchServiceTests::complete, 10));
+        for (int i = 0; i < 5; i++) {
+            workers.get(0).add(i);
+        }
+        WorkerRouter<Integer> router = WorkerRouter.powerOfTwoChoices();
+        for (int i = 0; i < 100; i++) {
+            assertEquals(1, router.route(i, workers));
+        }
+    }
+
+    @Test
+    void recordsMetricsTaggedByServiceName() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        DefaultBatchService<Integer, Integer> service = new DefaultBatchService<>(DefaultBatchServiceTests::complete,
+                BatchOptions.<Integer, Integer>builder()
+                        .name("numbers")
+                        .batchSize(10)
+                        .works(2)
+                        .meterRegistry(registry)
+                        .build());
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            futures.add(service.submit(i));
+        }
+        futures.forEach(CompletableFuture::join);
+        // 数据在 saver 中完成, 指标在 saver 返回后才记录
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (registry.get("batch.latency").timer().count() < 100 && System.nanoTime() < deadline) {
+            Thread.yield();
+        }
+
+        assertEquals(100, registry.get("batch.items").tag("service", "numbers").counter().count());
+        assertEquals(100, registry.get("batch.size").tag("service", "numbers").summary().totalAmount());
+        assertEquals(100, registry.get("batch.latency").tag("service", "numbers").timer().count());
+        assertEquals(2, registry.get("batch.queue.depth").tag("service", "numbers").gauges().size());
+        service.stop();
+    }
+
+    @Test
+    void failedItemsAreOnlyCountedAsExceptions() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        DefaultBatchService<Integer, Integer> service = new DefaultBatchService<>(cargos -> {
+            if (cargos.get(0).getContent() < 0) {
+                throw new IllegalStateException("database is down");
+            }
+            cargos.forEach(cargo -> {
+                if (cargo.getContent() % 2 == 0) {
+                    cargo.getHearthstone().complete(cargo.getContent());
+                } else {
+                    cargo.getHearthstone().completeExceptionally(new IllegalArgumentException("odd"));
+                }
+            });
+        }, BatchOptions.<Integer, Integer>builder()
+                .name("numbers")
+                .batchSize(1)
+                .works(1)
+                .meterRegistry(registry)
+                .build());
+        for (int i = 0; i < 10; i++) {
+            service.submit(i);
+        }
+        assertThrows(CompletionException.class, () -> service.submit(-1).join());
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (registry.get("batch.size").summary().count() < 11 && System.nanoTime() < deadline) {
+            Thread.yield();
+        }
+
+        assertEquals(5, registry.get("batch.items").counter().count());
+        assertEquals(5, registry.get("batch.latency").timer().count());
+        assertEquals(1, registry.get("batch.saver.exceptions").tag("exception", "IllegalStateException").counter().count());
+        service.stop();
+        assertNull(registry.find("batch.saver.exceptions").counter());
+        assertNull(registry.find("batch.items").counter());
+    }
+
+    @Test
+    void scheduledModeFlushesOnSizeOrDeadline() {
+        FlushScheduler scheduler = new FlushScheduler(2);
+        List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+        DefaultBatchService<Integer, Integer> service = new DefaultBatchService<>(cargos -> {
+            batchSizes.add(cargos.size());
+            complete(cargos);
+        }, BatchOptions.<Integer, Integer>builder()
+                .batchSize(10)
+                .works(16)
+                .linger(20, TimeUnit.MILLISECONDS)
+                .scheduler(scheduler)
+                .build());
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 1003; i++) {
+            futures.add(service.submit(i));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            assertEquals(i, futures.get(i).join());
+        }
+        assertTrue(batchSizes.stream().allMatch(size -> size <= 10));
+        assertEquals(1003, batchSizes.stream().mapToInt(Integer::intValue).sum());
+
+        CompletableFuture<Integer> late = service.submit(-1);
+        service.stop();
+        assertEquals(-1, late.join());
+        scheduler.shutdown();
+    }
+}
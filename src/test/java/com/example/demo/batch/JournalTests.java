@@ -0,0 +1,250 @@
+package com.example.demo.batch;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JournalTests {
+
+    private static final JournalCodec<Integer> CODEC = JournalCodec.json(new ObjectMapper(), Integer.class);
+
+    private static long segments(Path directory) throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(".log")).count();
+        }
+    }
+
+    @Test
+    void replaysItemsAfterCheckpointAcrossSegments() throws Exception {
+        Journal<Integer> journal = new Journal<>(dir, CODEC, 256);
+        journal.lock();
+        try {
+            for (int i = 1; i <= 50; i++) {
+                assertEquals(i, journal.append(i, null));
+            }
+            journal.discard(journal.append(999, null));
+        } finally {
+            journal.unlock();
+        }
+        long before = segments(dir);
+        journal.sync();
+        journal.checkpoint(20);
+        journal.close();
+        assertTrue(segments(dir) < before);
+
+        Journal<Integer> reopened = new Journal<>(dir, CODEC, 256);
+        List<Integer> replayed = new ArrayList<>();
+        reopened.replay((sequence, value) -> {
+            assertEquals(value.longValue(), sequence.longValue());
+            replayed.add(value);
+        });
+        assertEquals(30, replayed.size());
+        assertEquals(21, replayed.get(0));
+        assertEquals(50, replayed.get(29));
+        reopened.lock();
+        try {
+            assertEquals(51, reopened.append(51, null));
+        } finally {
+            reopened.unlock();
+        }
+        reopened.close();
+    }
+
+    @Test
+    void unsavedItemsAreReplayedByNextService() throws Exception {
+        CountDownLatch crashed = new CountDownLatch(1);
+        BatchOptions<Integer, Integer> options = BatchOptions.<Integer, Integer>builder()
+                .batchSize(10)
+                .works(2)
+                .journalDirectory(dir)
+                .journalCodec(CODEC)
+                .journalSegmentSize(4096)
+                .shutdownTimeout(100, TimeUnit.MILLISECONDS)
+                .build();
+        DefaultBatchService<Integer, Integer> first = new DefaultBatchService<>(cargos -> {
+            try {
+                crashed.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw new IllegalStateException("crashed");
+        }, options);
+        List<CompletableFuture<Void>> accepted = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            accepted.add(first.accept(i));
+        }
+        first.submit(100);
+        CompletableFuture.allOf(accepted.toArray(new CompletableFuture<?>[0])).get(5, TimeUnit.SECONDS);
+
+        // 模拟进程崩溃: 第一个服务没有保存任何数据, 日志原样交给新的服务
+        List<Integer> saved = new ArrayList<>();
+        Path copy = Files.createTempDirectory("journal-copy");
+        try (Stream<Path> workers = Files.list(dir)) {
+            for (Path worker : (Iterable<Path>) workers::iterator) {
+                Path target = Files.createDirectories(copy.resolve(worker.getFileName()));
+                try (Stream<Path> files = Files.list(worker)) {
+                    for (Path file : (Iterable<Path>) files::iterator) {
+                        Files.copy(file, target.resolve(file.getFileName()));
+                    }
+                }
+            }
+        }
+        crashed.countDown();
+        first.stop();
+
+        DefaultBatchService<Integer, Integer> second = new DefaultBatchService<>(cargos -> {
+            synchronized (saved) {
+                cargos.forEach(cargo -> saved.add(cargo.getContent()));
+            }
+            cargos.forEach(cargo -> cargo.getHearthstone().complete(cargo.getContent()));
+        }, options.toBuilder().journalDirectory(copy).build());
+        second.stop();
+
+        assertEquals(101, saved.size());
+        assertEquals(0, segments(copy.resolve("worker-0")) + segments(copy.resolve("worker-1")) - 2);
+    }
+
+    @Test
+    void failedAcceptedItemsStayInJournal() throws Exception {
+        BatchOptions<Integer, Integer> options = BatchOptions.<Integer, Integer>builder()
+                .batchSize(1)
+                .works(1)
+                .journalDirectory(dir)
+                .journalCodec(CODEC)
+                .journalSegmentSize(4096)
+                .build();
+        DefaultBatchService<Integer, Integer> first = new DefaultBatchService<>(cargos -> cargos.forEach(cargo -> {
+            if (cargo.getContent() == 3) {
+                throw new IllegalStateException("database is down");
+            }
+            cargo.getHearthstone().complete(cargo.getContent());
+        }), options);
+        for (int i = 0; i < 6; i++) {
+            first.accept(i).get(5, TimeUnit.SECONDS);
+        }
+        first.submit(6).get(5, TimeUnit.SECONDS);
+        first.stop();
+
+        // 保存失败的 3 留在日志中, 其后已保存的数据也会重放 (至少一次)
+        List<Integer> saved = new ArrayList<>();
+        DefaultBatchService<Integer, Integer> second = new DefaultBatchService<>(cargos -> {
+            synchronized (saved) {
+                cargos.forEach(cargo -> saved.add(cargo.getContent()));
+            }
+        }, options);
+        second.stop();
+        assertEquals(3, saved.get(0));
+        assertEquals(4, saved.size());
+    }
+
+    @Test
+    void shedItemsAreNotReplayed() throws Exception {
+        CountDownLatch saving = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        BatchOptions<Integer, Integer> options = BatchOptions.<Integer, Integer>builder()
+                .batchSize(1)
+                .works(1)
+                .capacity(2)
+                .overflowPolicy(OverflowPolicy.SHED_OLDEST)
+                .journalDirectory(dir)
+                .journalCodec(CODEC)
+                .journalSegmentSize(4096)
+                .build();
+        DefaultBatchService<Integer, Integer> first = new DefaultBatchService<>(cargos -> {
+            saving.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw new IllegalStateException("crashed");
+        }, options);
+        first.submit(0);
+        assertTrue(saving.await(5, TimeUnit.SECONDS));
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (int i = 1; i <= 4; i++) {
+            futures.add(first.submit(i));
+        }
+        for (int i = 0; i < 2; i++) {
+            CompletableFuture<Integer> shed = futures.get(i);
+            ExecutionException e = assertThrows(ExecutionException.class, () -> shed.get(5, TimeUnit.SECONDS));
+            assertEquals(BatchRejectedException.Reason.SHED, ((BatchRejectedException) e.getCause()).getReason());
+        }
+        Path worker = dir.resolve("worker-0");
+        Journal<Integer> journal = first.getWorkers().get(0).getJournal();
+        journal.sync();
+
+        // 模拟进程崩溃, 被挤出的 1 和 2 已经告知失败, 不再重放
+        Path copy = Files.createTempDirectory("journal-copy").resolve("worker-0");
+        Files.createDirectories(copy);
+        try (Stream<Path> files = Files.list(worker)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.copy(file, copy.resolve(file.getFileName()));
+            }
+        }
+        release.countDown();
+        first.stop();
+
+        List<Integer> saved = new ArrayList<>();
+        DefaultBatchService<Integer, Integer> second = new DefaultBatchService<>(cargos -> {
+            synchronized (saved) {
+                cargos.forEach(cargo -> saved.add(cargo.getContent()));
+            }
+        }, options.toBuilder().journalDirectory(copy.getParent()).build());
+        second.stop();
+        assertEquals(Arrays.asList(0, 3, 4), saved);
+    }
+
+    @Test
+    void blockedProducerDoesNotHoldTheJournalLock() throws Exception {
+        CountDownLatch saving = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        BatchOptions<Integer, Integer> options = BatchOptions.<Integer, Integer>builder()
+                .batchSize(1)
+                .works(1)
+                .capacity(1)
+                .overflowPolicy(OverflowPolicy.BLOCK)
+                .offerTimeout(10, TimeUnit.SECONDS)
+                .journalDirectory(dir)
+                .journalCodec(CODEC)
+                .build();
+        DefaultBatchService<Integer, Integer> service = new DefaultBatchService<>(cargos -> {
+            saving.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            cargos.forEach(cargo -> cargo.getHearthstone().complete(cargo.getContent()));
+        }, options);
+        service.submit(0);
+        assertTrue(saving.await(5, TimeUnit.SECONDS));
+        service.submit(1);
+        CompletableFuture<CompletableFuture<Integer>> blocked = CompletableFuture.supplyAsync(() -> service.submit(2));
+        Thread.sleep(100);
+        assertFalse(blocked.isDone());
+
+        // 提交方在等待队列空间, 其他线程仍能追加和落盘
+        Journal<Integer> journal = service.getWorkers().get(0).getJournal();
+        CompletableFuture.runAsync(journal::sync).get(1, TimeUnit.SECONDS);
+        release.countDown();
+        assertEquals(2, blocked.get(5, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS));
+        service.stop();
+    }
+
+    @TempDir
+    Path dir;
+}
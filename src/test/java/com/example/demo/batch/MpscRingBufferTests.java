@@ -0,0 +1,90 @@
+package com.example.demo.batch;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MpscRingBufferTests {
+
+    @Test
+    void capacityIsRoundedToPowerOfTwo() {
+        MpscRingBuffer<Integer> queue = new MpscRingBuffer<>(100);
+        assertEquals(128, queue.capacity());
+        for (int i = 0; i < 128; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertFalse(queue.offer(128));
+        assertEquals(128, queue.size());
+        assertEquals(0, queue.remainingCapacity());
+    }
+
+    @Test
+    void preservesFifoOrderAcrossWrapAround() {
+        MpscRingBuffer<Integer> queue = new MpscRingBuffer<>(4);
+        List<Integer> drained = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            queue.offer(i * 2);
+            queue.offer(i * 2 + 1);
+            queue.drainTo(drained, 2);
+        }
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i, drained.get(i));
+        }
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    void offerAllIsAllOrNothing() {
+        MpscRingBuffer<Integer> queue = new MpscRingBuffer<>(8);
+        queue.offer(0);
+        assertTrue(queue.offerAll(Arrays.asList(1, 2, 3, 4, 5)));
+        assertFalse(queue.offerAll(Arrays.asList(6, 7, 8)));
+        assertEquals(6, queue.size());
+        List<Integer> drained = new ArrayList<>();
+        queue.drainTo(drained);
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5), drained);
+        assertTrue(queue.offerAll(Arrays.asList(6, 7, 8, 9, 10, 11, 12, 13)));
+        assertEquals(6, queue.poll());
+    }
+
+    @Test
+    void deliversEveryItemFromConcurrentProducers() throws Exception {
+        int producers = 8;
+        int perProducer = 20_000;
+        MpscRingBuffer<Integer> queue = new MpscRingBuffer<>(1024);
+        ExecutorService executor = Executors.newFixedThreadPool(producers);
+        CountDownLatch start = new CountDownLatch(1);
+        for (int p = 0; p < producers; p++) {
+            executor.execute(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < perProducer; i++) {
+                        queue.put(1);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        start.countDown();
+        long sum = 0;
+        for (int i = 0; i < producers * perProducer; i++) {
+            Integer item = queue.poll(5, TimeUnit.SECONDS);
+            assertNotNull(item);
+            sum += item;
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals((long) producers * perProducer, sum);
+        assertNull(queue.poll());
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.demo.batch;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WorkerTests {
+
+    private static Worker<Integer, Integer> idleWorker(OverflowPolicy policy) {
+        return new Worker<>(items -> {
+        }, BatchOptions.<Integer, Integer>builder()
+                .capacity(2)
+                .overflowPolicy(policy)
+                .offerTimeout(10, TimeUnit.MILLISECONDS)
+                .build());
+    }
+
+    private static BatchRejectedException.Reason rejection(CompletableFuture<?> future) {
+        CompletionException e = assertThrows(CompletionException.class, future::join);
+        return ((BatchRejectedException) e.getCause()).getReason();
+    }
+
+    @Test
+    void failFastRejectsWhenQueueIsFull() {
+        Worker<Integer, Integer> worker = idleWorker(OverflowPolicy.FAIL_FAST);
+        worker.add(1);
+        worker.add(2);
+        assertEquals(BatchRejectedException.Reason.QUEUE_FULL, rejection(worker.add(3)));
+        assertEquals(1, worker.getQueueFullCount());
+        assertEquals(1, worker.getRejectedCount());
+    }
+
+    @Test
+    void blockRejectsAfterTimeout() {
+        Worker<Integer, Integer> worker = idleWorker(OverflowPolicy.BLOCK);
+        worker.add(1);
+        worker.add(2);
+        assertEquals(BatchRejectedException.Reason.QUEUE_FULL, rejection(worker.add(3)));
+        assertEquals(1, worker.getRejectedCount());
+    }
+
+    @Test
+    void shedOldestEvictsHeadOfQueue() {
+        Worker<Integer, Integer> worker = idleWorker(OverflowPolicy.SHED_OLDEST);
+        CompletableFuture<Integer> first = worker.add(1);
+        CompletableFuture<Integer> second = worker.add(2);
+        CompletableFuture<Integer> third = worker.add(3);
+        assertEquals(BatchRejectedException.Reason.SHED, rejection(first));
+        assertFalse(second.isDone());
+        assertFalse(third.isDone());
+        assertEquals(1, worker.getShedCount());
+        assertEquals(2, worker.getQueueSize());
+    }
+
+    @Test
+    void coalescesDuplicatesWithinBatch() {
+        List<List<String>> batches = new ArrayList<>();
+        DefaultBatchService<String, String> service = new DefaultBatchService<>(cargos -> {
+            batches.add(cargos.stream().map(Cargo::getContent).collect(Collectors.toList()));
+            cargos.forEach(cargo -> cargo.getHearthstone().complete(cargo.getContent().toUpperCase()));
+        }, BatchOptions.<String, String>builder()
+                .batchSize(100)
+                .works(1)
+                .linger(1, TimeUnit.SECONDS)
+                .coalesce(value -> value.charAt(0), (first, second) -> first + second.substring(1))
+                .build());
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (String value : new String[]{"a1", "b1", "a2", "c1", "a3", "b2"}) {
+            futures.add(service.submit(value));
+        }
+        service.stop();
+
+        assertEquals(1, batches.size());
+        assertEquals(Arrays.asList("a123", "b12", "c1"), batches.get(0));
+        assertEquals("A123", futures.get(0).join());
+        assertEquals("A123", futures.get(2).join());
+        assertEquals("A123", futures.get(4).join());
+        assertEquals("B12", futures.get(5).join());
+        assertEquals("C1", futures.get(3).join());
+        assertEquals(3, service.getWorkers().get(0).getCoalescedCount());
+    }
+
+    @Test
+    void adaptiveBatchSizeConvergesUnderTargetLatency() {
+        // 模拟每行耗时 100 微秒的数据库, 目标耗时 20 毫秒对应约 200 行一批
+        BatchSizeController controller = new BatchSizeController(1000, 10, 2000, TimeUnit.MILLISECONDS.toNanos(20));
+        for (int i = 0; i < 200; i++) {
+            int size = controller.limit();
+            controller.record(size, size, size * TimeUnit.MICROSECONDS.toNanos(100), false);
+        }
+        assertTrue(controller.limit() <= 200, "limit " + controller.limit());
+        assertTrue(controller.limit() >= 150, "limit " + controller.limit());
+
+        int before = controller.limit();
+        controller.record(before, before, 0, true);
+        assertTrue(controller.limit() < before);
+        controller.record(1, 1, 1000, false);
+        assertEquals((int) (before * 0.75), controller.limit());
+    }
+
+    @Test
+    void bisectionFailsOnlyTheOffendingItem() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        AtomicInteger calls = new AtomicInteger();
+        DefaultBatchService<Integer, Integer> service = new DefaultBatchService<>(cargos -> {
+            calls.incrementAndGet();
+            if (cargos.stream().anyMatch(cargo -> cargo.getContent() == 42)) {
+                throw new IllegalArgumentException("bad item");
+            }
+            cargos.forEach(cargo -> cargo.getHearthstone().complete(cargo.getContent()));
+        }, BatchOptions.<Integer, Integer>builder()
+                .batchSize(100)
+                .works(1)
+                .linger(1, TimeUnit.SECONDS)
+                .bisectDepth(7)
+                .bisectRetries(32)
+                .meterRegistry(registry)
+                .build());
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            futures.add(service.submit(i));
+        }
+        for (int i = 0; i < 100; i++) {
+            if (i == 42) {
+                CompletableFuture<Integer> future = futures.get(i);
+                CompletionException e = assertThrows(CompletionException.class, future::join);
+                assertTrue(e.getCause() instanceof IllegalArgumentException);
+            } else {
+                assertEquals(i, futures.get(i).join());
+            }
+        }
+        assertTrue(calls.get() <= 1 + 2 * 7);
+        // 原批次的失败只记一次, 拆分后的每次重试记在 batch.bisect.retries 中, 失败的一半每层一次
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (registry.get("batch.size").summary().count() < 1 && System.nanoTime() < deadline) {
+            Thread.yield();
+        }
+        assertEquals(1, registry.get("batch.failed").counter().count());
+        assertEquals(1, registry.get("batch.saver.exceptions").counter().count());
+        double succeeded = registry.get("batch.bisect.retries").tag("outcome", "success").counter().count();
+        double failed = registry.get("batch.bisect.retries").tag("outcome", "failure").counter().count();
+        assertEquals(7, failed);
+        assertEquals(calls.get() - 1, succeeded + failed);
+        service.stop();
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.demo.id;
+
+import cn.hutool.core.lang.Snowflake;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnowflakeIdGeneratorTests {
+
+    @Test
+    void layoutMatchesHutoolSnowflake() {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(3, 7, 5000, 0);
+        Snowflake snowflake = new Snowflake(7, 3);
+        long id = generator.nextId();
+        assertEquals(7, snowflake.getWorkerId(id));
+        assertEquals(3, snowflake.getDataCenterId(id));
+        assertTrue(Math.abs(snowflake.getGenerateDateTime(id) - System.currentTimeMillis()) < 1000);
+    }
+
+    @Test
+    void reservedIdsAreUniqueAcrossThreads() throws Exception {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(1, 1, 5000, 0);
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            executor.execute(() -> {
+                for (int i = 0; i < 200; i++) {
+                    long[] batch = generator.nextIds(500);
+                    for (int j = 1; j < batch.length; j++) {
+                        assertTrue(batch[j] > batch[j - 1]);
+                    }
+                    for (long id : batch) {
+                        ids.add(id);
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        assertEquals(8 * 200 * 500, ids.size());
+    }
+
+    @Test
+    void keepsIncreasingWhenClockMovesBackwards() {
+        AtomicLong clock = new AtomicLong(1_600_000_000_000L);
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(1, 1, 5000, 0, clock::get);
+        long before = generator.nextIds(10_000)[9_999];
+        clock.addAndGet(-2000);
+        long after = generator.nextId();
+        assertTrue(after > before);
+        assertTrue(generator.getLastTimestamp() > clock.get());
+    }
+
+    @Test
+    void startsAfterPreviousLeaseTimestamp() {
+        AtomicLong clock = new AtomicLong(1_600_000_000_000L);
+        SnowflakeIdGenerator previous = new SnowflakeIdGenerator(1, 1, 5000, 0, clock::get);
+        long last = previous.nextId();
+        clock.addAndGet(-1000);
+        SnowflakeIdGenerator restarted = new SnowflakeIdGenerator(1, 1, 5000, previous.getLastTimestamp(), clock::get);
+        assertTrue(restarted.nextId() > last);
+    }
+
+    @Test
+    void crashAfterClockRollbackResumesAfterReservedTimestamp() {
+        AtomicLong clock = new AtomicLong(1_600_000_000_000L);
+        AtomicLong saved = new AtomicLong();
+        SnowflakeIdGenerator crashed = new SnowflakeIdGenerator(1, 1, 5000, 0, saved::set, 1000, clock::get);
+        long last = 0;
+        for (int i = 0; i < 50; i++) {
+            last = crashed.nextId();
+            clock.addAndGet(100);
+        }
+        assertTrue(saved.get() >= crashed.getLastTimestamp());
+
+        // 没有正常停机, 重启后系统时钟回拨 2 秒, 回到最后一批 id 之前
+        clock.addAndGet(-2000);
+        SnowflakeIdGenerator restarted = new SnowflakeIdGenerator(1, 1, 5000, saved.get(), saved::set, 1000, clock::get);
+        assertTrue(restarted.nextId() > last);
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.demo.service;
+
+import com.example.demo.domain.User;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserCacheTests {
+
+    private final UserCache cache = new UserCache(new SimpleMeterRegistry(), 100, Duration.ofMinutes(1));
+
+    private static User user(long id, String username) {
+        return User.builder().id(id).username(username).build();
+    }
+
+    @Test
+    void usernameLookupIsServedFromCacheAfterPut() {
+        cache.put(user(1, "alice"));
+        assertEquals(1L, cache.getByUsername("alice", username -> fail("loader called")).get().getId());
+        assertEquals("alice", cache.getById(1L, id -> fail("loader called")).get().getUsername());
+    }
+
+    @Test
+    void staleUsernameMappingFallsBackToTheLoader() {
+        cache.put(user(1, "alice"));
+        // 改名后旧用户名的映射仍然指向 1, 不能把改名后的用户当作 alice 返回
+        cache.put(user(1, "bob"));
+        AtomicInteger loads = new AtomicInteger();
+        Optional<User> alice = cache.getByUsername("alice", username -> {
+            loads.incrementAndGet();
+            return Optional.empty();
+        });
+
+        assertFalse(alice.isPresent());
+        assertEquals(1, loads.get());
+        assertEquals(1L, cache.getByUsername("bob", username -> fail("loader called")).get().getId());
+    }
+
+    @Test
+    void usernameTakenOverByAnotherUserIsRemapped() {
+        cache.put(user(1, "alice"));
+        cache.put(user(1, "alice-old"));
+        Optional<User> alice = cache.getByUsername("alice", username -> Optional.of(user(2, "alice")));
+
+        assertEquals(2L, alice.get().getId());
+        // 加载结果写回缓存, 之后按新映射命中
+        assertEquals(2L, cache.getByUsername("alice", username -> fail("loader called")).get().getId());
+        assertEquals("alice-old", cache.getById(1L, id -> fail("loader called")).get().getUsername());
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.demo.service;
+
+import com.example.demo.batch.BatchOptions;
+import com.example.demo.batch.DefaultBatchService;
+import com.example.demo.domain.User;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserImportServiceTests {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private DefaultBatchService<User, User> batchService;
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        if (batchService != null) {
+            batchService.stop();
+        }
+    }
+
+    /**
+     * 用户名以 bad 开头的数据写入失败, 每组 3 条, 最多 6 条在途
+     *
+     * @param blocking saver 是否等到 release 之后才完成
+     * @param timeout  等待写入的超时时间
+     */
+    private UserImportService service(boolean blocking, Duration timeout) {
+        batchService = new DefaultBatchService<>(cargos -> {
+            if (blocking) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            cargos.forEach(cargo -> {
+                if (cargo.getContent().getUsername().startsWith("bad")) {
+                    cargo.getHearthstone().completeExceptionally(new IllegalArgumentException("bad user"));
+                } else {
+                    cargo.getHearthstone().complete(cargo.getContent());
+                }
+            });
+        }, BatchOptions.<User, User>builder().batchSize(10).works(2).build());
+        return new UserImportService(batchService, new ObjectMapper(), 6, 3, timeout);
+    }
+
+    private UserImportService service() {
+        return service(false, Duration.ofSeconds(5));
+    }
+
+    private static ImportResult importUsers(UserImportService service, String body)
+            throws IOException, InterruptedException {
+        return service.importUsers(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String user(String username) {
+        return "{\"username\":\"" + username + "\",\"nickname\":\"n\",\"password\":\"p\"}";
+    }
+
+    @Test
+    void importsJsonArray() throws Exception {
+        StringBuilder body = new StringBuilder("[");
+        for (int i = 0; i < 10; i++) {
+            body.append(i == 0 ? "" : ",").append(user(i % 4 == 0 ? "bad-" + i : "user-" + i));
+        }
+        ImportResult result = importUsers(service(), body.append("]").toString());
+
+        assertEquals(7, result.getInserted());
+        assertEquals(3, result.getFailed());
+        assertNull(result.getError());
+    }
+
+    @Test
+    void importsNdjson() throws Exception {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 8; i++) {
+            body.append(user("user-" + i)).append('\n');
+        }
+        ImportResult result = importUsers(service(), body.toString());
+
+        assertEquals(8, result.getInserted());
+        assertEquals(0, result.getFailed());
+        assertNull(result.getError());
+    }
+
+    @Test
+    void malformedBodyKeepsRowsReadBeforeTheError() throws Exception {
+        String body = "[" + user("user-1") + "," + user("user-2") + "," + user("user-3") + ","
+                + user("user-4") + ",{\"username\": }]";
+        ImportResult result = importUsers(service(), body);
+
+        // 出错位置之前的 4 条照常写入, 包括还没有凑满一组的最后 1 条
+        assertEquals(4, result.getInserted());
+        assertEquals(0, result.getFailed());
+        assertNotNull(result.getError());
+    }
+
+    @Test
+    void missingClosingBracketIsAnError() throws Exception {
+        ImportResult result = importUsers(service(), "[" + user("user-1") + "," + user("user-2"));
+
+        assertEquals(2, result.getInserted());
+        assertEquals(0, result.getFailed());
+        assertNotNull(result.getError());
+    }
+
+    @Test
+    void timeoutCountsUnconfirmedAndUnsubmittedRowsAsFailed() throws Exception {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            body.append(user("user-" + i)).append('\n');
+        }
+        long start = System.nanoTime();
+        ImportResult result = importUsers(service(true, Duration.ofMillis(100)), body.toString());
+
+        // 前两组占满配额后写入卡住, 第三组等不到配额, 之后的数据只读取不提交
+        assertEquals(0, result.getInserted());
+        assertEquals(10, result.getFailed());
+        assertNull(result.getError());
+        assertTrue(System.nanoTime() - start < Duration.ofSeconds(2).toNanos(), "import waited past the timeout");
+    }
+}
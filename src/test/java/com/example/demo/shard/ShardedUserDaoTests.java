@@ -0,0 +1,141 @@
+package com.example.demo.shard;
+
+import com.example.demo.domain.User;
+import com.example.demo.id.SnowflakeIdGenerator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardedUserDaoTests {
+
+    private static final int SHARDS = 3;
+
+    private final List<DriverManagerDataSource> dataSources = new ArrayList<>();
+    private ShardedUserDao dao;
+
+    @BeforeEach
+    void setUp() {
+        String prefix = "shard-" + UUID.randomUUID();
+        for (int i = 0; i < SHARDS; i++) {
+            dataSources.add(new DriverManagerDataSource(
+                    "jdbc:h2:mem:" + prefix + "-" + i + ";MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", ""));
+        }
+        dao = new ShardedUserDao(dataSources, new SnowflakeIdGenerator(1, 1, 5000, 0), 50, 100, 4);
+        dao.createSchema();
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        // 不用 JdbcTemplate: DEBUG 日志级别下它会在 SHUTDOWN 之后读取 Statement 的警告, 此时数据库已经关闭
+        for (DriverManagerDataSource dataSource : dataSources) {
+            try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+                statement.execute("SHUTDOWN");
+            }
+        }
+        dao.destroy();
+    }
+
+    private static User user(String username) {
+        return User.builder().username(username).nickname("n-" + username).createdAt(new Date()).build();
+    }
+
+    private int rows(int shard) {
+        Integer count = new JdbcTemplate(dataSources.get(shard)).queryForObject("SELECT COUNT(*) FROM DEMO_USER", Integer.class);
+        return count == null ? 0 : count;
+    }
+
+    @Test
+    void batchIsSplitAcrossShardsAndReadBack() {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            users.add(user("u" + i));
+        }
+        List<List<User>> committed = Collections.synchronizedList(new ArrayList<>());
+        dao.saveInBatch(users, user -> user, (group, e) -> {
+            assertNull(e);
+            committed.add(group);
+        });
+
+        assertEquals(300, committed.stream().mapToInt(List::size).sum());
+        assertEquals(SHARDS, committed.size());
+        for (int i = 0; i < SHARDS; i++) {
+            assertTrue(rows(i) > 50, "shard " + i + " has " + rows(i) + " rows");
+        }
+        for (List<User> group : committed) {
+            int shard = ShardRouter.route(group.get(0).getId(), SHARDS);
+            for (User user : group) {
+                assertEquals(shard, ShardRouter.route(user.getId(), SHARDS));
+            }
+        }
+
+        User some = users.get(123);
+        assertEquals("u123", dao.findById(some.getId()).map(User::getUsername).orElse(null));
+        assertEquals(some.getId(), dao.findByUsername("u123").map(User::getId).orElse(null));
+
+        Page<User> page = dao.findPage(PageRequest.of(2, 20));
+        assertEquals(300, page.getTotalElements());
+        assertEquals(20, page.getContent().size());
+        for (int i = 0; i < 20; i++) {
+            // 同一批的 id 递增, 按 id 合并后与提交顺序一致
+            assertEquals(users.get(40 + i).getId(), page.getContent().get(i).getId());
+        }
+        assertThrows(IllegalArgumentException.class,
+                () -> dao.findPage(PageRequest.of(ShardedUserDao.MAX_PAGE_OFFSET / 20 + 1, 20)));
+
+        Slice<User> slice = dao.findAfter(users.get(289).getId(), 20);
+        assertEquals(10, slice.getContent().size());
+        assertFalse(slice.hasNext());
+    }
+
+    @Test
+    void failingShardOnlyFailsItsOwnRows() {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            users.add(user("u" + i));
+        }
+        new JdbcTemplate(dataSources.get(1)).execute("DROP TABLE DEMO_USER");
+        List<User> failed = Collections.synchronizedList(new ArrayList<>());
+        List<User> saved = Collections.synchronizedList(new ArrayList<>());
+        dao.saveInBatch(users, user -> user, (group, e) -> (e == null ? saved : failed).addAll(group));
+
+        assertEquals(30, saved.size() + failed.size());
+        assertFalse(failed.isEmpty());
+        for (User user : failed) {
+            assertEquals(1, ShardRouter.route(user.getId(), SHARDS));
+        }
+        assertEquals(saved.size(), rows(0) + rows(2));
+    }
+
+    @Test
+    void upsertKeepsCreatedAtOfExistingRows() throws Exception {
+        User user = user("before");
+        dao.saveInBatch(Collections.singletonList(user), u -> u, (group, e) -> assertNull(e));
+        Date createdAt = dao.findById(user.getId()).map(User::getCreatedAt).orElse(null);
+        assertNotNull(createdAt);
+
+        Thread.sleep(5);
+        User update = User.builder().id(user.getId()).username("after").createdAt(new Date()).updatedAt(new Date()).build();
+        dao.upsertInBatch(Collections.singletonList(update), u -> u, (group, e) -> assertNull(e));
+
+        User stored = dao.findById(user.getId()).orElseThrow(AssertionError::new);
+        assertEquals("after", stored.getUsername());
+        assertEquals(createdAt.getTime(), stored.getCreatedAt().getTime());
+        assertEquals(createdAt.getTime(), update.getCreatedAt().getTime());
+    }
+}
@@ -0,0 +1,25 @@
+package com.example.demo.web;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CursorPageTests {
+
+    @Test
+    void decodeReversesEncode() {
+        for (long id : new long[]{0, 1, -1, 1234567890123L, Long.MIN_VALUE, Long.MAX_VALUE}) {
+            String cursor = CursorPage.encode(id);
+            // URL 安全且没有填充, 可以直接放在查询参数中
+            assertTrue(cursor.matches("[A-Za-z0-9_-]+"), cursor);
+            assertEquals(id, CursorPage.decode(cursor));
+        }
+    }
+
+    @Test
+    void rejectsMalformedCursors() {
+        assertThrows(IllegalArgumentException.class, () -> CursorPage.decode("not a cursor"));
+        assertThrows(IllegalArgumentException.class, () -> CursorPage.decode("AAAA"));
+        assertThrows(IllegalArgumentException.class, () -> CursorPage.decode(CursorPage.encode(1) + "AA"));
+    }
+}
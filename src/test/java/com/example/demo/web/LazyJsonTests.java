@@ -0,0 +1,78 @@
+package com.example.demo.web;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LazyJsonTests {
+
+    private static final String INPUT = "{\"image\":\"a\\\"bé\",\"boxes\":[1,2,3],\"big\":12345678901234567890,"
+            + "\"meta\":{\"ok\":true,\"note\":null}}";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private LazyJson input() throws Exception {
+        MessageBody body = objectMapper.readValue("{\"task_id\":\"t\",\"input\":" + INPUT + "}", MessageBody.class);
+        return body.getInput();
+    }
+
+    @Test
+    void parserReadsFromTheStartEveryTime() throws Exception {
+        LazyJson input = input();
+        for (int round = 0; round < 2; round++) {
+            try (JsonParser parser = input.parser()) {
+                assertEquals(JsonToken.START_OBJECT, parser.nextToken());
+                assertEquals("image", parser.nextFieldName());
+                assertEquals("a\"bé", parser.nextTextValue());
+                parser.skipChildren();
+            }
+        }
+    }
+
+    @Test
+    void treeIsBuiltOnceAndCached() throws Exception {
+        LazyJson input = input();
+        JsonNode tree = input.tree();
+
+        assertSame(tree, input.tree());
+        assertEquals(3, tree.get("boxes").size());
+        assertEquals(new BigInteger("12345678901234567890"), tree.get("big").bigIntegerValue());
+        assertTrue(tree.get("meta").get("note").isNull());
+    }
+
+    @Test
+    void bindsToTypesWithoutATree() throws Exception {
+        LazyJson input = input();
+        Map<?, ?> map = input.as(Map.class);
+        assertEquals("a\"bé", map.get("image"));
+        assertEquals(Arrays.asList(1, 2, 3), map.get("boxes"));
+
+        Map<String, List<Integer>> boxes = objectMapper.readValue("{\"input\":{\"boxes\":[4,5]}}", MessageBody.class)
+                .getInput()
+                .as(new TypeReference<Map<String, List<Integer>>>() {
+                });
+        assertEquals(Arrays.asList(4, 5), boxes.get("boxes"));
+    }
+
+    @Test
+    void serializesTheOriginalTokens() throws Exception {
+        LazyJson input = input();
+        assertEquals(INPUT, objectMapper.writeValueAsString(input));
+
+        // 随 MessageBody 一起输出时原样嵌入, 构建过树之后也不变
+        input.tree();
+        MessageBody body = MessageBody.builder().taskId("t").input(input).build();
+        JsonNode written = objectMapper.readTree(objectMapper.writeValueAsString(body));
+        assertEquals(objectMapper.readTree(INPUT), written.get("input"));
+    }
+}
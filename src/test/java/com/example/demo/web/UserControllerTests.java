@@ -0,0 +1,306 @@
+package com.example.demo.web;
+
+import com.example.demo.batch.BatchOptions;
+import com.example.demo.batch.DefaultBatchService;
+import com.example.demo.domain.User;
+import com.example.demo.service.TaskStore;
+import com.example.demo.service.UserImportService;
+import com.example.demo.service.UserService;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class UserControllerTests {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final UserService userService = mock(UserService.class);
+    private DefaultBatchService<User, User> batchService;
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        if (batchService != null) {
+            batchService.stop();
+        }
+    }
+
+    /**
+     * @param blocking saver 是否等到 release 之后才完成
+     * @param ttl      任务结果的保留时间
+     */
+    private MockMvc mvc(boolean blocking, Duration ttl) {
+        batchService = new DefaultBatchService<>(cargos -> {
+            if (blocking) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            cargos.forEach(cargo -> cargo.getHearthstone().complete(cargo.getContent()));
+        }, BatchOptions.<User, User>builder().batchSize(10).works(1).build());
+        TaskStore taskStore = new TaskStore(new SimpleMeterRegistry(), 1000, ttl);
+        UserImportService importService = new UserImportService(batchService, new ObjectMapper(), 100, 10,
+                Duration.ofSeconds(5));
+        UserController controller = new UserController(userService, batchService, batchService, importService, taskStore,
+                new ObjectMapper(), Duration.ofSeconds(5));
+        return MockMvcBuilders.standaloneSetup(controller).build();
+    }
+
+    private MockMvc mvc() {
+        return mvc(false, Duration.ofMinutes(1));
+    }
+
+    private static String body(String taskId, String mode) {
+        return "{\"task_id\":\"" + taskId + "\",\"mode\":\"" + mode + "\",\"input\":{\"image\":\"x\"}}";
+    }
+
+    private static MvcResult infer(MockMvc mvc, String taskId, String mode) throws Exception {
+        return mvc.perform(post("/algorithms/id/infer")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(body(taskId, mode)))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+    }
+
+    @Test
+    void asyncModeReturnsAcceptedWithEncodedLocation() throws Exception {
+        MockMvc mvc = mvc();
+        MvcResult result = infer(mvc, "a b%#/c", "async");
+        mvc.perform(asyncDispatch(result))
+                .andExpect(status().isAccepted())
+                .andExpect(header().string(HttpHeaders.LOCATION, "/algorithms/id/tasks/a%20b%25%23%2Fc"))
+                .andExpect(jsonPath("$.task_id").value("a b%#/c"))
+                .andExpect(jsonPath("$.status").value("PENDING"));
+    }
+
+    @Test
+    void syncModeReturnsResult() throws Exception {
+        MockMvc mvc = mvc();
+        MvcResult result = infer(mvc, "t-sync", "sync");
+        mvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value("SUCCEEDED"))
+                .andExpect(jsonPath("$.result.username").value("xxxx"));
+    }
+
+    @Test
+    void syncTimeoutFallsBackToAccepted() throws Exception {
+        MockMvc mvc = mvc(true, Duration.ofMinutes(1));
+        MvcResult result = infer(mvc, "t-slow", "sync");
+        // MockMvc 不会自己触发超时, 模拟容器的超时回调
+        MockAsyncContext context = (MockAsyncContext) result.getRequest().getAsyncContext();
+        for (AsyncListener listener : context.getListeners()) {
+            listener.onTimeout(null);
+        }
+        mvc.perform(asyncDispatch(result))
+                .andExpect(status().isAccepted())
+                .andExpect(header().string(HttpHeaders.LOCATION, "/algorithms/id/tasks/t-slow"))
+                .andExpect(jsonPath("$.status").value("PENDING"));
+
+        // 超时之后任务继续处理, 完成后可以查询到结果
+        release.countDown();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (mvc.perform(get("/algorithms/id/tasks/t-slow")).andReturn().getResponse().getStatus() != 200
+                && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        mvc.perform(get("/algorithms/id/tasks/t-slow"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value("SUCCEEDED"));
+    }
+
+    @Test
+    void duplicateTaskIdReturnsExistingTask() throws Exception {
+        MockMvc mvc = mvc();
+        mvc.perform(asyncDispatch(infer(mvc, "t-dup", "sync"))).andExpect(status().isOk());
+        String first = mvc.perform(get("/algorithms/id/tasks/t-dup")).andReturn().getResponse().getContentAsString();
+
+        mvc.perform(asyncDispatch(infer(mvc, "t-dup", "sync")))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value("SUCCEEDED"));
+        String second = mvc.perform(get("/algorithms/id/tasks/t-dup")).andReturn().getResponse().getContentAsString();
+        // 重复请求没有再次处理, 结果 (包括生成的 id) 不变
+        assertEquals(first, second);
+    }
+
+    @Test
+    void duplicateOfRejectedTaskKeepsRejectionStatus() throws Exception {
+        MockMvc mvc = mvc();
+        batchService.stop();
+        mvc.perform(asyncDispatch(infer(mvc, "t-rejected", "sync")))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string(HttpHeaders.RETRY_AFTER, "1"));
+        mvc.perform(asyncDispatch(infer(mvc, "t-rejected", "sync")))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string(HttpHeaders.RETRY_AFTER, "1"))
+                .andExpect(jsonPath("$.status").value("FAILED"));
+    }
+
+    @Test
+    void unknownOrExpiredTaskIsNotFound() throws Exception {
+        MockMvc mvc = mvc(false, Duration.ofMillis(50));
+        mvc.perform(get("/algorithms/id/tasks/missing")).andExpect(status().isNotFound());
+
+        mvc.perform(asyncDispatch(infer(mvc, "t-expiring", "sync"))).andExpect(status().isOk());
+        mvc.perform(get("/algorithms/id/tasks/t-expiring")).andExpect(status().isOk());
+        Thread.sleep(100);
+        mvc.perform(get("/algorithms/id/tasks/t-expiring")).andExpect(status().isNotFound());
+    }
+
+    @Test
+    void malformedBulkBodyIsBadRequestWithPartialCounts() throws Exception {
+        mvc().perform(post("/users/bulk")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"username\":\"a\"},{\"username\":\"b\"},{\"username\": }]"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.inserted").value(2))
+                .andExpect(jsonPath("$.failed").value(0))
+                .andExpect(jsonPath("$.error").isNotEmpty());
+    }
+
+    private static User user(long id) {
+        return User.builder().id(id).username("user-" + id).build();
+    }
+
+    @Test
+    void cursorPagesResumeAfterTheLastIdOfThePreviousPage() throws Exception {
+        MockMvc mvc = mvc();
+        when(userService.findAfter(null, 2))
+                .thenReturn(new SliceImpl<>(Arrays.asList(user(1), user(5)), PageRequest.ofSize(2), true));
+        when(userService.findAfter(5L, 2))
+                .thenReturn(new SliceImpl<>(Collections.singletonList(user(9)), PageRequest.ofSize(2), false));
+
+        String next = CursorPage.encode(5);
+        mvc.perform(get("/users/cursor").param("size", "2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content.length()").value(2))
+                .andExpect(jsonPath("$.has_next").value(true))
+                .andExpect(jsonPath("$.next_cursor").value(next));
+        mvc.perform(get("/users/cursor").param("size", "2").param("cursor", next))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content[0].id").value(9))
+                .andExpect(jsonPath("$.has_next").value(false))
+                .andExpect(jsonPath("$.next_cursor").doesNotExist());
+    }
+
+    @Test
+    void invalidCursorOrSizeIsBadRequest() throws Exception {
+        MockMvc mvc = mvc();
+        mvc.perform(get("/users/cursor").param("cursor", "not a cursor")).andExpect(status().isBadRequest());
+        // 合法的 Base64, 但长度不是 8 个字节
+        mvc.perform(get("/users/cursor").param("cursor", "AAAA")).andExpect(status().isBadRequest());
+        mvc.perform(get("/users/cursor").param("size", "0")).andExpect(status().isBadRequest());
+        mvc.perform(get("/users/cursor").param("size", "100000")).andExpect(status().isBadRequest());
+        verify(userService, never()).findAfter(any(), anyInt());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void exportUsers(int count, AtomicInteger exported) {
+        doAnswer(invocation -> {
+            Consumer<User> consumer = invocation.getArgument(0);
+            for (int i = 1; i <= count; i++) {
+                consumer.accept(User.builder().id((long) i).username("user-" + i).nickname("用户" + i).build());
+                exported.incrementAndGet();
+            }
+            return null;
+        }).when(userService).export(any(Consumer.class));
+    }
+
+    @Test
+    void exportWritesOneJsonObjectPerLine() throws Exception {
+        MockMvc mvc = mvc();
+        exportUsers(3, new AtomicInteger());
+        MvcResult result = mvc.perform(get("/users/export"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, startsWith(MediaType.APPLICATION_NDJSON_VALUE)))
+                .andReturn();
+
+        String body = result.getResponse().getContentAsString(StandardCharsets.UTF_8);
+        assertTrue(body.endsWith("\n"));
+        String[] lines = body.split("\n");
+        assertEquals(3, lines.length);
+        ObjectMapper objectMapper = new ObjectMapper();
+        for (int i = 0; i < lines.length; i++) {
+            JsonNode node = objectMapper.readTree(lines[i]);
+            assertEquals(i + 1, node.get("id").asLong());
+            assertEquals("用户" + (i + 1), node.get("nickname").asText());
+        }
+    }
+
+    @Test
+    void exportStopsReadingWhenTheClientDisconnects() {
+        AtomicInteger exported = new AtomicInteger();
+        exportUsers(100000, exported);
+        UserController controller = new UserController(userService, null, null, null, null, new ObjectMapper(),
+                Duration.ofSeconds(5));
+        MockHttpServletResponse response = new MockHttpServletResponse() {
+            @Override
+            public ServletOutputStream getOutputStream() {
+                return new ServletOutputStream() {
+                    @Override
+                    public boolean isReady() {
+                        return true;
+                    }
+
+                    @Override
+                    public void setWriteListener(WriteListener writeListener) {
+                    }
+
+                    @Override
+                    public void write(int b) throws IOException {
+                        throw new IOException("Broken pipe");
+                    }
+                };
+            }
+        };
+
+        IOException e = assertThrows(IOException.class, () -> controller.export(response));
+        assertEquals("Broken pipe", e.getMessage());
+        // 第一次写出失败后不再读取后面的数据
+        assertTrue(exported.get() < 1000, "exported " + exported.get());
+    }
+}